@@ -18,38 +18,44 @@ import android.os.Build;
 import android.os.Environment;
 import android.os.IBinder;
 import android.preference.PreferenceManager;
+import android.text.TextUtils;
+import android.text.format.Formatter;
 import android.util.Log;
 
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 import androidx.core.app.NotificationCompat;
 
-import com.google.firebase.crashlytics.buildtools.reloc.org.apache.commons.io.IOUtils;
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
-
+import org.vosk.demo.api.BandwidthLimiter;
 import org.vosk.demo.api.Download;
-import org.vosk.demo.api.DownloadProgressListener;
+import org.vosk.demo.api.DownloadStats;
+import org.vosk.demo.api.ExtractionProgressReporter;
+import org.vosk.demo.api.ModelManifest;
 import org.vosk.demo.api.VoskClient;
 import org.vosk.demo.api.VoskService;
-import org.vosk.demo.ui.model_list.ModelItem;
 import org.vosk.demo.ui.model_list.ModelListActivity;
+import org.vosk.demo.utils.BufferPool;
+import org.vosk.demo.utils.Checksums;
 import org.vosk.demo.utils.Error;
 import org.vosk.demo.utils.EventBus;
+import org.vosk.demo.utils.FileAllocation;
 import org.vosk.demo.utils.PreferenceConstants;
 import org.vosk.demo.utils.ZipHelper;
 
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.FileNotFoundException;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import io.reactivex.Completable;
+import io.reactivex.Single;
 import io.reactivex.android.schedulers.AndroidSchedulers;
 import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.disposables.Disposable;
 import io.reactivex.schedulers.Schedulers;
-import okhttp3.ResponseBody;
 
 public class DownloadModelService extends Service {
 
@@ -58,16 +64,28 @@ public class DownloadModelService extends Service {
     public static final String DOWNLOAD_MODEL_CHANNEL_NAME = "Vosk model downloader";
     public static final int DOWNLOAD_MODEL_NOTIFICATION_ID = 1;
     public static final int DOWNLOAD_MODEL_MAX_PROGRESS = 100;
+    public static final int DEFAULT_PARALLEL_DOWNLOADS = 2;
+    private static final String TAG = "DownloadModelService";
 
     private final CompositeDisposable compositeDisposable = new CompositeDisposable();
-    private final VoskService service = VoskClient.getClient(getListener(), DOWNLOAD_MODEL);
+    private final Map<String, Disposable> activeDownloads = new HashMap<>();
+    // Failed downloads stay queued but are only retried on the next start request
+    private final Set<String> failedDownloads = new HashSet<>();
+    private final Map<String, Integer> progressByModel = new HashMap<>();
+    private final Map<String, DownloadStats> statsByModel = new HashMap<>();
+    private final Map<String, Long> reservedBytesByModel = new HashMap<>();
+    private VoskService service;
+    private DownloadQueue downloadQueue;
+    private DownloadStatsHistory statsHistory;
+    private StoragePlanner storagePlanner;
+    private ModelStorageManager storageManager;
     private SharedPreferences sharedPreferences;
     private final EventBus eventBus = EventBus.getInstance();
     private NotificationManager notificationManager;
     private NotificationCompat.Builder notificationBuilder;
 
     private int actualProgress = 0;
-    private String modelName;
+    private String actualRate;
 
     @Nullable
     @Override
@@ -79,8 +97,14 @@ public class DownloadModelService extends Service {
     public void onCreate() {
         super.onCreate();
         sharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
-        modelName = sharedPreferences.getString(PreferenceConstants.DOWNLOADING_FILE, "");
-        downloadModel(modelName);
+        service = VoskClient.getClient(this, DOWNLOAD_MODEL);
+        downloadQueue = new DownloadQueue(sharedPreferences);
+        statsHistory = new DownloadStatsHistory(sharedPreferences);
+        storagePlanner = new StoragePlanner(MODEL_FILE_ROOT_PATH, sharedPreferences);
+        storageManager = new ModelStorageManager(sharedPreferences);
+        VoskClient.getBandwidthLimiter().setBytesPerSecond(
+                sharedPreferences.getLong(PreferenceConstants.DOWNLOAD_BANDWIDTH_LIMIT, BandwidthLimiter.UNLIMITED));
+        ZipHelper.setBufferSize(sharedPreferences.getInt(PreferenceConstants.EXTRACTION_BUFFER_SIZE, BufferPool.getBufferSize(this)));
         observeEvents();
     }
 
@@ -89,86 +113,198 @@ public class DownloadModelService extends Service {
                 .subscribeOn(Schedulers.io())
                 .observeOn(AndroidSchedulers.mainThread())
                 .subscribe(download -> {
+                    String modelName = download.getModelName();
+                    if (modelName == null || !activeDownloads.containsKey(modelName)) {
+                        return;
+                    }
                     if (download.getProgress() == UNZIPPING) {
-
-                        File outputFile = new File(MODEL_FILE_ROOT_PATH, modelName + ".zip");
-                        File destinationFile = new File(MODEL_FILE_ROOT_PATH, modelName);
-
-                        ZipHelper.unzipFIle(outputFile, destinationFile);
-                        actualProgress = CLEAR;
+                        progressByModel.put(modelName, 0);
+                        updateNotificationProgress();
+                    } else if (download.getPhase() == UNZIPPING) {
+                        progressByModel.put(modelName, download.getProgress());
+                        updateNotificationProgress();
                     } else if (download.getProgress() == COMPLETE) {
-                        addOfflineModel();
-                        sharedPreferences.edit()
-                                .remove(PreferenceConstants.DOWNLOADING_FILE)
-                                .apply();
+                        downloadQueue.remove(modelName);
                         if (!sharedPreferences.contains(PreferenceConstants.ACTIVE_MODEL))
                             sharedPreferences.edit().putString(PreferenceConstants.ACTIVE_MODEL, modelName).apply();
-                        stopSelf();
-                    } else {
-                        if (actualProgress != download.getProgress()) {
-                            actualProgress = download.getProgress();
-                            updateNotificationProgress();
+                        ModelRegistry registry = ModelRegistry.getInstance(this);
+                        compositeDisposable.add(Completable.fromAction(() -> storageManager.enforceBudget(registry))
+                                .subscribeOn(Schedulers.io())
+                                .subscribe());
+                        finishDownload(modelName);
+                        scheduleDownloads();
+                    } else if (download.getProgress() < CLEAR) {
+                        progressByModel.put(modelName, download.getProgress());
+                        if (download.getStats() != null) {
+                            statsByModel.put(modelName, download.getStats());
                         }
+                        updateNotificationProgress();
                     }
                 }));
-        compositeDisposable.add(EventBus.getInstance().geErrorObservable().subscribeOn(Schedulers.io()).subscribe(error -> stopSelf()));
     }
 
-    private void updateNotificationProgress() {
-        notificationBuilder.setProgress(DOWNLOAD_MODEL_MAX_PROGRESS, actualProgress, false);
-        notificationManager.notify(DOWNLOAD_MODEL_NOTIFICATION_ID, notificationBuilder.build());
+    /**
+     * Starts queued models, highest priority first, until the configured number of transfers
+     * is running. Stops the service once nothing is left to do.
+     */
+    private void scheduleDownloads() {
+        int parallelism = Math.max(1, sharedPreferences.getInt(PreferenceConstants.DOWNLOAD_PARALLELISM, DEFAULT_PARALLEL_DOWNLOADS));
+        for (DownloadQueue.Item item : downloadQueue.getItems()) {
+            if (activeDownloads.size() >= parallelism) {
+                break;
+            }
+            String modelName = item.getModelName();
+            if (activeDownloads.containsKey(modelName) || failedDownloads.contains(modelName)) {
+                continue;
+            }
+            if (!storagePlanner.fits(item, getReservedBytes())) {
+                if (activeDownloads.isEmpty()) {
+                    // Nothing running will free space for it, give up instead of failing halfway
+                    failedDownloads.add(modelName);
+                    eventBus.postErrorStatus(Error.INSUFFICIENT_STORAGE);
+                    eventBus.postDownloadStatus(new Download(CLEAR, modelName));
+                }
+                // Otherwise it stays queued until a running download is over
+                continue;
+            }
+            reservedBytesByModel.put(modelName, storagePlanner.getRequiredBytes(item));
+            startDownload(item);
+        }
+        if (activeDownloads.isEmpty()) {
+            stopSelf();
+        }
     }
 
-    private void addOfflineModel() {
-        String offlineListJson = sharedPreferences.getString(PreferenceConstants.OFFLINE_LIST, "[]");
-        Gson gson = new Gson();
-        List<ModelItem> offlineModels = gson.fromJson(offlineListJson, new TypeToken<List<ModelItem>>() {
-        }.getType());
-        offlineModels.add(new ModelItem(modelName));
-        String offlineModelsJson = gson.toJson(offlineModels);
-        sharedPreferences.edit().putString(PreferenceConstants.OFFLINE_LIST, offlineModelsJson).apply();
+    /**
+     * Runs on the I/O scheduler as the last stage of the download pipeline.
+     */
+    private Completable extract(String modelName, String version) {
+        return Completable.fromAction(() -> {
+            File outputFile = new File(MODEL_FILE_ROOT_PATH, modelName + ".zip");
+            File destinationFile = new File(MODEL_FILE_ROOT_PATH, modelName);
+
+            eventBus.postDownloadStatus(new Download(UNZIPPING, modelName));
+            ZipHelper.recoverPublish(destinationFile);
+            ModelManifest.delete(destinationFile);
+            List<ZipHelper.ExtractedFile> extractedFiles = ZipHelper.unzipFile(outputFile, destinationFile,
+                    new ExtractionProgressReporter(modelName));
+            // Lets the recognizer screens validate the install without walking the tree
+            ModelManifest.create(extractedFiles, version).save(destinationFile);
+            storageManager.removeArchive(modelName);
+        });
     }
 
-    private DownloadProgressListener getListener() {
-        return (bytesRead, contentLength, done) -> {
-            Download download = new Download();
-            download.setTotalFileSize(contentLength);
-            download.setCurrentFileSize(bytesRead);
-            int progress = (int) ((bytesRead * 100) / contentLength);
-            download.setProgress(progress);
-            Log.d("DOWNLOAD", "Progress: " + progress);
-            EventBus.getInstance().postDownloadStatus(download);
-        };
+    private long getReservedBytes() {
+        long reservedBytes = 0;
+        for (long bytes : reservedBytesByModel.values()) {
+            reservedBytes += bytes;
+        }
+        return reservedBytes;
     }
 
-    private void downloadModel(String modelName) {
-        File outputFile = new File(MODEL_FILE_ROOT_PATH, modelName + ".zip");
-        ZipHelper.createDir(MODEL_FILE_ROOT_PATH);
-
-        compositeDisposable.add(service.downloadFile(outputFile.getName())
+    private void startDownload(DownloadQueue.Item item) {
+        String modelName = item.getModelName();
+        ModelDownloadTask task = new ModelDownloadTask(service, sharedPreferences, item);
+        Disposable disposable = task.download()
+                .doOnSuccess(state -> recordStats(task.getStats(), true))
+                .flatMap(state -> state == UNZIPPING ? extract(modelName, item.getVersion()).toSingleDefault(COMPLETE) : Single.just(state))
+                .doOnSuccess(state -> {
+                    // Listed before COMPLETE is posted, so every subscriber finds the model installed.
+                    // Only verified archives get this far, the digest is kept for later integrity checks.
+                    if (state == COMPLETE) {
+                        storageManager.addOfflineModel(modelName, item.getMd5(), item.getVersion());
+                    }
+                })
                 .subscribeOn(Schedulers.io())
-                .map(ResponseBody::byteStream)
-                .doOnNext(inputStream -> writeFile(inputStream, outputFile))
-                .subscribe(inputStream -> EventBus.getInstance().postDownloadStatus(new Download(UNZIPPING, modelName)),
-                        error -> EventBus.getInstance().postErrorStatus(Error.CONNECTION)));
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(state -> eventBus.postDownloadStatus(new Download(state, modelName)),
+                        error -> {
+                            // A failed extraction comes after a transfer that was already recorded
+                            if (task.getStats().getEndTime() == 0) {
+                                recordStats(task.getStats(), false);
+                            }
+                            eventBus.postErrorStatus(toError(error));
+                            onDownloadFailed(modelName);
+                        });
+        activeDownloads.put(modelName, disposable);
+        compositeDisposable.add(disposable);
+    }
+
+    private void recordStats(DownloadStats stats, boolean successful) {
+        stats.finish(successful);
+        statsHistory.add(stats);
+        Log.i(TAG, stats.getModelName() + (successful ? " downloaded" : " failed")
+                + ": " + stats.getBytesTransferred() + " bytes at " + stats.getAverageBytesPerSecond() + " B/s"
+                + ", first byte after " + stats.getTimeToFirstByteMs() + " ms"
+                + ", " + stats.getReusedConnections() + "/" + (stats.getNewConnections() + stats.getReusedConnections()) + " connections reused"
+                + ", " + stats.getRetries() + " retries"
+                + ", " + stats.getStalls() + " stalls (" + stats.getStalledMs() + " ms)");
+    }
 
+    private static Error toError(Throwable error) {
+        if (error instanceof Checksums.MismatchException) {
+            return Error.CHECKSUM;
+        }
+        if (error instanceof FileAllocation.InsufficientStorageException) {
+            return Error.INSUFFICIENT_STORAGE;
+        }
+        return error instanceof FileNotFoundException ? Error.WRITE_STORAGE : Error.CONNECTION;
     }
 
-    private static void writeFile(InputStream inputStream, File file) {
-        try (OutputStream outputStream = new FileOutputStream(file)) {
-            IOUtils.copy(inputStream, outputStream);
-        } catch (IOException e) {
-            EventBus.getInstance().postErrorStatus(Error.WRITE_STORAGE);
+    private void onDownloadFailed(String modelName) {
+        failedDownloads.add(modelName);
+        finishDownload(modelName);
+        scheduleDownloads();
+    }
+
+    private void finishDownload(String modelName) {
+        Disposable disposable = activeDownloads.remove(modelName);
+        if (disposable != null) {
+            compositeDisposable.remove(disposable);
+        }
+        progressByModel.remove(modelName);
+        statsByModel.remove(modelName);
+        reservedBytesByModel.remove(modelName);
+    }
+
+    private void updateNotificationProgress() {
+        if (notificationBuilder == null || progressByModel.isEmpty()) {
+            return;
+        }
+        int total = 0;
+        for (int progress : progressByModel.values()) {
+            total += progress;
+        }
+        int progress = total / progressByModel.size();
+        long bytesPerSecond = 0;
+        for (DownloadStats stats : statsByModel.values()) {
+            bytesPerSecond += stats.getCurrentBytesPerSecond();
+        }
+        String rate = Formatter.formatShortFileSize(this, bytesPerSecond) + "/s";
+        if (actualProgress != progress || !rate.equals(actualRate)) {
+            actualProgress = progress;
+            actualRate = rate;
+            notificationBuilder.setProgress(DOWNLOAD_MODEL_MAX_PROGRESS, actualProgress, false)
+                    .setContentText(TextUtils.join(", ", progressByModel.keySet()))
+                    .setSubText(rate);
+            notificationManager.notify(DOWNLOAD_MODEL_NOTIFICATION_ID, notificationBuilder.build());
         }
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
+        // Every start request has to be answered with startForeground, even when already running
         registerNotification();
+        failedDownloads.clear();
+        scheduleDownloads();
         return START_NOT_STICKY;
     }
 
     private void registerNotification() {
+        if (notificationBuilder != null) {
+            startForeground(DOWNLOAD_MODEL_NOTIFICATION_ID, notificationBuilder.build());
+            return;
+        }
         notificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
         Intent notificationIntent = new Intent(this, ModelListActivity.class);
         PendingIntent pendingIntent = PendingIntent.getActivity(this, 0, notificationIntent, 0);
@@ -0,0 +1,206 @@
+package org.vosk.demo;
+
+import android.content.SharedPreferences;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import org.vosk.demo.ui.model_list.ModelItem;
+import org.vosk.demo.utils.PreferenceConstants;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Models waiting to be downloaded, persisted in the shared preferences so the queue survives
+ * process death. Higher priorities are served first, equal priorities in the order they were
+ * queued.
+ */
+public class DownloadQueue {
+
+    public static final int DEFAULT_PRIORITY = 0;
+    public static final int UPDATE_PRIORITY = -1;
+
+    private final SharedPreferences sharedPreferences;
+    private final Gson gson = new Gson();
+
+    public DownloadQueue(SharedPreferences sharedPreferences) {
+        this.sharedPreferences = sharedPreferences;
+    }
+
+    public synchronized List<Item> getItems() {
+        List<Item> items = load();
+        Collections.sort(items, (first, second) -> first.priority != second.priority
+                ? Integer.compare(second.priority, first.priority)
+                : Long.compare(first.queuedAt, second.queuedAt));
+        return items;
+    }
+
+    /**
+     * @return false if the model is already queued
+     */
+    public synchronized boolean enqueue(ModelItem modelItem, int priority) {
+        return add(new Item(modelItem, false, priority, System.currentTimeMillis()));
+    }
+
+    /**
+     * Queues a newer release of an installed model, only the files that changed are fetched.
+     *
+     * @return false if the model is already queued
+     */
+    public synchronized boolean enqueueUpdate(ModelItem modelItem) {
+        return add(new Item(modelItem, true, UPDATE_PRIORITY, System.currentTimeMillis()));
+    }
+
+    private boolean add(Item newItem) {
+        List<Item> items = load();
+        for (Item item : items) {
+            if (item.modelName.equals(newItem.modelName)) {
+                return false;
+            }
+        }
+        items.add(newItem);
+        save(items);
+        return true;
+    }
+
+    public synchronized void remove(String modelName) {
+        List<Item> items = load();
+        for (int i = items.size() - 1; i >= 0; i--) {
+            if (items.get(i).modelName.equals(modelName)) {
+                items.remove(i);
+            }
+        }
+        save(items);
+    }
+
+    /**
+     * Serves the model before everything else that is queued, e.g. when it is tapped again.
+     *
+     * @return false if the model is not queued
+     */
+    public synchronized boolean moveToFront(String modelName) {
+        List<Item> items = load();
+        Item target = null;
+        int highestPriority = DEFAULT_PRIORITY;
+        for (Item item : items) {
+            highestPriority = Math.max(highestPriority, item.priority);
+            if (item.modelName.equals(modelName)) {
+                target = item;
+            }
+        }
+        if (target == null) {
+            return false;
+        }
+        target.priority = highestPriority + 1;
+        save(items);
+        return true;
+    }
+
+    public synchronized Set<String> getModelNames() {
+        Set<String> modelNames = new HashSet<>();
+        for (Item item : load()) {
+            modelNames.add(item.modelName);
+        }
+        return modelNames;
+    }
+
+    public synchronized boolean contains(String modelName) {
+        return get(modelName) != null;
+    }
+
+    public synchronized Item get(String modelName) {
+        for (Item item : load()) {
+            if (item.modelName.equals(modelName)) {
+                return item;
+            }
+        }
+        return null;
+    }
+
+    public synchronized boolean isEmpty() {
+        return load().isEmpty();
+    }
+
+    private List<Item> load() {
+        List<Item> items = gson.fromJson(sharedPreferences.getString(PreferenceConstants.DOWNLOAD_QUEUE, "[]"),
+                new TypeToken<List<Item>>() {
+                }.getType());
+        if (items == null) {
+            items = new ArrayList<>();
+        }
+
+        // Versions with a single download slot kept the model name on its own
+        String legacyDownload = sharedPreferences.getString(PreferenceConstants.DOWNLOADING_FILE, "");
+        if (!legacyDownload.equals("")) {
+            items.add(new Item(new ModelItem(legacyDownload), false, DEFAULT_PRIORITY, System.currentTimeMillis()));
+            sharedPreferences.edit().remove(PreferenceConstants.DOWNLOADING_FILE).apply();
+            save(items);
+        }
+        return items;
+    }
+
+    private void save(List<Item> items) {
+        sharedPreferences.edit().putString(PreferenceConstants.DOWNLOAD_QUEUE, gson.toJson(items)).apply();
+    }
+
+    public static class Item {
+        private String modelName;
+        private String md5;
+        private String version;
+        private long size;
+        private boolean update;
+        private int priority;
+        private long queuedAt;
+
+        public Item() {
+        }
+
+        public Item(ModelItem modelItem, boolean update, int priority, long queuedAt) {
+            this.modelName = modelItem.getName();
+            this.md5 = modelItem.getMd5();
+            this.version = modelItem.getVersion();
+            this.size = modelItem.getSize();
+            this.update = update;
+            this.priority = priority;
+            this.queuedAt = queuedAt;
+        }
+
+        public String getModelName() {
+            return modelName;
+        }
+
+        /**
+         * Checksum of the archive from the catalog, null if the model was queued without one.
+         */
+        public String getMd5() {
+            return md5;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+
+        /**
+         * Size of the archive from the catalog, 0 if unknown.
+         */
+        public long getSize() {
+            return size;
+        }
+
+        public boolean isUpdate() {
+            return update;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        public long getQueuedAt() {
+            return queuedAt;
+        }
+    }
+}
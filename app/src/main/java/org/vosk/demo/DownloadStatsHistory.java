@@ -0,0 +1,54 @@
+package org.vosk.demo;
+
+import android.content.SharedPreferences;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import org.vosk.demo.api.DownloadStats;
+import org.vosk.demo.utils.PreferenceConstants;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Summary records of the last finished downloads, successful or not, kept in the shared
+ * preferences so they can be exported when a slow download is reported.
+ */
+public class DownloadStatsHistory {
+
+    public static final int MAX_RECORDS = 20;
+
+    private final SharedPreferences sharedPreferences;
+    private final Gson gson = new Gson();
+
+    public DownloadStatsHistory(SharedPreferences sharedPreferences) {
+        this.sharedPreferences = sharedPreferences;
+    }
+
+    public synchronized void add(DownloadStats stats) {
+        List<DownloadStats> records = getRecords();
+        records.add(stats.copy());
+        while (records.size() > MAX_RECORDS) {
+            records.remove(0);
+        }
+        sharedPreferences.edit().putString(PreferenceConstants.DOWNLOAD_STATS, gson.toJson(records)).apply();
+    }
+
+    /**
+     * @return the records, oldest first
+     */
+    public synchronized List<DownloadStats> getRecords() {
+        List<DownloadStats> records = gson.fromJson(sharedPreferences.getString(PreferenceConstants.DOWNLOAD_STATS, "[]"),
+                new TypeToken<List<DownloadStats>>() {
+                }.getType());
+        return records != null ? records : new ArrayList<>();
+    }
+
+    /**
+     * @return the records as a JSON array
+     */
+    public String export() {
+        return sharedPreferences.getString(PreferenceConstants.DOWNLOAD_STATS, "[]");
+    }
+}
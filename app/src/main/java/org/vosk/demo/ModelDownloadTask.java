@@ -0,0 +1,393 @@
+package org.vosk.demo;
+
+import static org.vosk.demo.DownloadModelService.MODEL_FILE_ROOT_PATH;
+import static org.vosk.demo.api.Download.COMPLETE;
+import static org.vosk.demo.api.Download.UNZIPPING;
+
+import android.content.SharedPreferences;
+
+import org.vosk.demo.api.DownloadJournal;
+import org.vosk.demo.api.DownloadProgressListener;
+import org.vosk.demo.api.DownloadProgressReporter;
+import org.vosk.demo.api.DownloadStats;
+import org.vosk.demo.api.MirrorSelector;
+import org.vosk.demo.api.ModelManifest;
+import org.vosk.demo.api.SegmentedDownloader;
+import org.vosk.demo.api.VoskClient;
+import org.vosk.demo.api.VoskService;
+import org.vosk.demo.utils.Checksums;
+import org.vosk.demo.utils.FileAllocation;
+import org.vosk.demo.utils.FileChannelSink;
+import org.vosk.demo.utils.PreferenceConstants;
+import org.vosk.demo.utils.UpdateJournal;
+import org.vosk.demo.utils.ZipHelper;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.Completable;
+import io.reactivex.Flowable;
+import io.reactivex.Observable;
+import io.reactivex.Single;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+import okio.Sink;
+import org.reactivestreams.Publisher;
+import retrofit2.HttpException;
+import retrofit2.Response;
+
+/**
+ * Transfer of one model archive, from the first request until the archive is on disk (or, in
+ * streaming mode, extracted). Every task reports progress for its own model on the event bus.
+ */
+class ModelDownloadTask {
+
+    private static final int HTTP_PARTIAL_CONTENT = 206;
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+    private static final int MAX_RETRIES = 5;
+    private static final long INITIAL_RETRY_DELAY_MS = 1000;
+    private static final long MAX_RETRY_DELAY_MS = 30_000;
+
+    private final VoskService service;
+    private final SharedPreferences sharedPreferences;
+    private final String modelName;
+    private final String md5;
+    private final String version;
+    private final boolean update;
+    private final File outputFile;
+    private final DownloadProgressReporter progressReporter;
+
+    ModelDownloadTask(VoskService service, SharedPreferences sharedPreferences, DownloadQueue.Item item) {
+        this.service = service;
+        this.sharedPreferences = sharedPreferences;
+        this.modelName = item.getModelName();
+        this.md5 = item.getMd5();
+        this.version = item.getVersion();
+        this.update = item.isUpdate();
+        this.outputFile = new File(MODEL_FILE_ROOT_PATH, modelName + ".zip");
+        this.progressReporter = new DownloadProgressReporter(modelName);
+    }
+
+    /**
+     * @return the state the model is in once the transfer is over, {@code UNZIPPING} when the
+     * archive still has to be extracted or {@code COMPLETE} when it was streamed into place
+     */
+    Single<Integer> download() {
+        // Recovery may move or delete a whole model tree, it runs where the caller subscribes
+        return Single.defer(() -> {
+            File modelDir = new File(MODEL_FILE_ROOT_PATH, modelName);
+            ZipHelper.recoverPublish(modelDir);
+            if (update && modelDir.isDirectory()) {
+                return downloadUpdate(modelDir);
+            }
+            return downloadArchive();
+        });
+    }
+
+    private Single<Integer> downloadArchive() {
+        return transferArchive().retryWhen(this::retryWithBackoff);
+    }
+
+    private long getSyncIntervalBytes() {
+        return sharedPreferences.getLong(PreferenceConstants.DOWNLOAD_SYNC_INTERVAL, FileChannelSink.DEFAULT_SYNC_INTERVAL_BYTES);
+    }
+
+    DownloadStats getStats() {
+        return progressReporter.getStats();
+    }
+
+    /**
+     * A transfer that breaks or stalls halfway is picked up on the next mirror after an
+     * exponential backoff, the journal makes the new attempt resume where the broken one stopped.
+     * An attempt that moved data resets the backoff, only a link that keeps failing without
+     * progress gives up after {@link #MAX_RETRIES}.
+     */
+    private Publisher<Long> retryWithBackoff(Flowable<Throwable> errors) {
+        AtomicInteger failedAttempts = new AtomicInteger();
+        AtomicLong bytesAtLastFailure = new AtomicLong();
+        return errors.flatMap(error -> {
+            DownloadStats stats = progressReporter.getStats();
+            if (stats.getBytesTransferred() > bytesAtLastFailure.getAndSet(stats.getBytesTransferred())) {
+                failedAttempts.set(0);
+            }
+            int attempt = failedAttempts.incrementAndGet();
+            if (!isRetriable(error) || attempt > MAX_RETRIES) {
+                return Flowable.error(error);
+            }
+            // The mirror that broke the transfer was already moved down by the MirrorSelector
+            stats.onRetry();
+            long delay = Math.min(MAX_RETRY_DELAY_MS, INITIAL_RETRY_DELAY_MS << (attempt - 1));
+            return Flowable.timer(delay, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    private static boolean isRetriable(Throwable error) {
+        // Checksum and storage errors would happen again on any mirror
+        return error instanceof IOException && !(error instanceof Checksums.MismatchException)
+                && !(error instanceof FileNotFoundException) && !(error instanceof FileAllocation.InsufficientStorageException);
+    }
+
+    private Single<Integer> transferArchive() {
+        return Single.defer(() -> {
+            // A previous attempt may have resumed a single stream, the ranges and a fresh
+            // stream count from zero
+            progressReporter.setBaseOffset(0);
+            ZipHelper.createDir(MODEL_FILE_ROOT_PATH);
+
+            DownloadJournal journal = DownloadJournal.load(outputFile);
+            if (journal.isComplete(outputFile)) {
+                // The archive was fully downloaded before the process died, go straight to unzipping
+                return Single.just(UNZIPPING);
+            }
+            if (sharedPreferences.getBoolean(PreferenceConstants.STREAMING_EXTRACTION, false)
+                    && journal.getResumeOffset(outputFile, null) == 0 && !journal.hasSegments()) {
+                return downloadAndExtract(new File(MODEL_FILE_ROOT_PATH, modelName))
+                        .ignoreElements()
+                        .toSingleDefault(COMPLETE);
+            }
+
+            SegmentedDownloader segmentedDownloader = new SegmentedDownloader(service, outputFile.getName(),
+                    outputFile, journal, progressReporter, progressReporter.getStats(), SegmentedDownloader.DEFAULT_SEGMENT_COUNT,
+                    getSyncIntervalBytes());
+            return Single.fromCallable(segmentedDownloader::download)
+                    .flatMap(segmented -> segmented ? verifySegmented(journal).toSingleDefault(UNZIPPING) : downloadSingleStream(journal)
+                            .ignoreElements()
+                            .toSingleDefault(UNZIPPING));
+        });
+    }
+
+    /**
+     * Brings an installed model to the new release by fetching only the files whose size or
+     * checksum differ from the installed manifest. They are staged next to the model and moved
+     * into it under an {@link UpdateJournal}, the unchanged files stay in place. Without a
+     * manifest on either side the whole archive is downloaded as usual.
+     */
+    private Single<Integer> downloadUpdate(File modelDir) {
+        return service.getManifest(modelName + ModelManifest.SUFFIX)
+                .firstOrError()
+                .flatMap(response -> {
+                    ModelManifest manifest = response.body();
+                    ModelManifest installed = ModelManifest.load(modelDir);
+                    if (!response.isSuccessful() || manifest == null || installed == null) {
+                        return downloadArchive();
+                    }
+                    return applyManifest(manifest, installed, modelDir).toSingleDefault(COMPLETE);
+                });
+    }
+
+    private Completable applyManifest(ModelManifest manifest, ModelManifest installed, File modelDir) {
+        File stagingDir = ZipHelper.getStagingDir(modelDir);
+        return Single.fromCallable(() -> {
+                    List<ModelManifest.Entry> changedEntries = manifest.getChangedEntries(installed, modelDir);
+                    prepareStaging(manifest, changedEntries, modelDir, stagingDir);
+                    return changedEntries;
+                })
+                .flatMapCompletable(changedEntries -> {
+                    long totalSize = 0;
+                    for (ModelManifest.Entry entry : changedEntries) {
+                        totalSize += entry.getSize();
+                    }
+                    AtomicLong completedSize = new AtomicLong();
+                    long updateSize = totalSize;
+                    return Observable.fromIterable(changedEntries)
+                            .concatMapCompletable(entry -> downloadEntry(entry, stagingDir, completedSize, updateSize))
+                            .doOnError(error -> ZipHelper.deleteRecursively(stagingDir))
+                            // Once the journal is committed the staging directory belongs to the recovery
+                            .andThen(Completable.fromAction(() -> moveIntoPlace(manifest, installed, changedEntries, modelDir, stagingDir)));
+                });
+    }
+
+    /**
+     * Checks every path of both manifests before anything is written.
+     */
+    private static void prepareStaging(ModelManifest manifest, List<ModelManifest.Entry> changedEntries,
+                                       File modelDir, File stagingDir) throws IOException {
+        for (ModelManifest.Entry entry : manifest.getFiles()) {
+            ModelManifest.resolve(modelDir, entry);
+        }
+        ZipHelper.deleteRecursively(stagingDir);
+        ModelManifest.delete(stagingDir);
+        for (ModelManifest.Entry entry : changedEntries) {
+            File parent = ModelManifest.resolve(stagingDir, entry).getParentFile();
+            if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Could not create " + parent);
+            }
+        }
+    }
+
+    private static void moveIntoPlace(ModelManifest manifest, ModelManifest installed, List<ModelManifest.Entry> changedEntries,
+                                      File modelDir, File stagingDir) throws IOException {
+        manifest.save(stagingDir);
+        UpdateJournal journal = new UpdateJournal(ZipHelper.getUpdateJournalFile(modelDir));
+        for (ModelManifest.Entry entry : changedEntries) {
+            journal.addMove(ModelManifest.resolve(stagingDir, entry), ModelManifest.resolve(modelDir, entry));
+        }
+        Set<String> paths = new HashSet<>();
+        for (ModelManifest.Entry entry : manifest.getFiles()) {
+            paths.add(entry.getPath());
+        }
+        for (ModelManifest.Entry entry : installed.getFiles()) {
+            if (!paths.contains(entry.getPath())) {
+                journal.addDelete(ModelManifest.resolve(modelDir, entry));
+            }
+        }
+        // Last, a crash before it leaves the old manifest, which the recovery replaces
+        journal.addMove(ModelManifest.getFile(stagingDir), ModelManifest.getFile(modelDir));
+        journal.commit();
+        journal.apply();
+        ZipHelper.deleteRecursively(stagingDir);
+    }
+
+    private Completable downloadEntry(ModelManifest.Entry entry, File stagingDir, AtomicLong completedSize, long updateSize) {
+        // Progress covers the whole update, not the single file
+        DownloadProgressListener listener = (bytesRead, contentLength, done) ->
+                progressReporter.update(completedSize.get() + bytesRead, updateSize, false);
+        return service.downloadFile(modelName + "/" + entry.getPath(), null, null, listener, progressReporter.getStats(), null)
+                .doOnSubscribe(disposable -> progressReporter.setBaseOffset(0))
+                .doOnNext(response -> writeEntry(response, entry, ModelManifest.resolve(stagingDir, entry)))
+                .ignoreElements()
+                .retryWhen(this::retryWithBackoff)
+                .doOnComplete(() -> completedSize.addAndGet(entry.getSize()));
+    }
+
+    private void writeEntry(Response<ResponseBody> response, ModelManifest.Entry entry, File target) throws IOException {
+        ResponseBody body = response.body();
+        if (!response.isSuccessful() || body == null) {
+            throw new HttpException(response);
+        }
+        MessageDigest digest = Checksums.newMd5();
+        try (RandomAccessFile file = new RandomAccessFile(target, "rw");
+             FileChannel channel = file.getChannel();
+             BufferedSource source = body.source()) {
+            file.setLength(0);
+            try (Sink sink = new FileChannelSink(channel, 0, getSyncIntervalBytes(), digest)) {
+                source.readAll(sink);
+            }
+            Checksums.verify(digest, entry.getMd5());
+        } catch (IOException e) {
+            target.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Streaming mode: entries are unpacked as they arrive, the archive itself never touches the
+     * disk. Such a download can't be resumed, an interrupted one starts over.
+     */
+    private Observable<Response<ResponseBody>> downloadAndExtract(File destination) {
+        return service.downloadFile(outputFile.getName(), null, null, progressReporter, progressReporter.getStats(), null)
+                .doOnNext(response -> extractStream(response, destination));
+    }
+
+    private void extractStream(Response<ResponseBody> response, File destination) throws IOException {
+        ResponseBody body = response.body();
+        if (!response.isSuccessful() || body == null) {
+            throw new HttpException(response);
+        }
+        MessageDigest digest = Checksums.newMd5();
+        List<ZipHelper.ExtractedFile> extractedFiles;
+        try (InputStream inputStream = new DigestInputStream(body.byteStream(), digest)) {
+            extractedFiles = ZipHelper.unzipStream(inputStream, destination);
+            if (md5 != null) {
+                Checksums.verify(digest, md5);
+            }
+        } catch (IOException e) {
+            ZipHelper.deleteRecursively(ZipHelper.getStagingDir(destination));
+            throw e;
+        }
+        ZipHelper.publish(destination);
+        ModelManifest.create(extractedFiles, version).save(destination);
+    }
+
+    /**
+     * A resume is pinned to the mirror its If-Range was chosen for, see
+     * {@link DownloadJournal#getIfRangeHeader(long, MirrorSelector.Origin)}.
+     */
+    private Observable<Response<ResponseBody>> downloadSingleStream(DownloadJournal journal) {
+        MirrorSelector.Origin origin = VoskClient.getMirrorSelector().getCurrentMirror();
+        long resumeOffset = journal.getResumeOffset(outputFile, origin);
+        progressReporter.setBaseOffset(resumeOffset);
+        return service.downloadFile(outputFile.getName(), journal.getRangeHeader(resumeOffset), journal.getIfRangeHeader(resumeOffset, origin),
+                progressReporter, progressReporter.getStats(), resumeOffset > 0 ? origin : null)
+                .doOnNext(response -> writeFile(response, journal, resumeOffset));
+    }
+
+    private void writeFile(Response<ResponseBody> response, DownloadJournal journal, long resumeOffset) throws IOException {
+        ResponseBody body = response.body();
+        if (!response.isSuccessful() || body == null) {
+            if (response.code() == HTTP_RANGE_NOT_SATISFIABLE) {
+                // The partial file does not match the archive on the server anymore, start over
+                journal.delete();
+                outputFile.delete();
+            }
+            throw new HttpException(response);
+        }
+
+        // The server answers a Range request with the whole archive when If-Range did not match
+        boolean append = response.code() == HTTP_PARTIAL_CONTENT;
+        if (append && !journal.matchesLength(response.headers())) {
+            body.close();
+            journal.delete();
+            outputFile.delete();
+            throw new IOException("The archive on the server changed since the download started");
+        }
+        long offset = append ? resumeOffset : 0;
+        progressReporter.setBaseOffset(offset);
+        long contentLength = body.contentLength();
+        journal.start(MirrorSelector.getOrigin(response.raw()), response.headers(), contentLength < 0 ? -1 : offset + contentLength);
+
+        // The archive is hashed while it streams to disk, only a resumed prefix is read back
+        MessageDigest digest = md5 != null ? Checksums.newMd5() : null;
+        if (digest != null && offset > 0) {
+            Checksums.update(digest, outputFile, offset);
+        }
+        try (RandomAccessFile file = new RandomAccessFile(outputFile, "rw");
+             FileChannel channel = file.getChannel();
+             BufferedSource source = body.source()) {
+            file.setLength(offset);
+            try (Sink sink = new FileChannelSink(channel, offset, getSyncIntervalBytes(), digest)) {
+                source.readAll(sink);
+            }
+        }
+        if (md5 != null) {
+            verify(digest, journal);
+        }
+        journal.markComplete();
+    }
+
+    /**
+     * Ranges arrive out of order, so a segmented archive can only be hashed once it is complete.
+     */
+    private Completable verifySegmented(DownloadJournal journal) {
+        return Completable.fromAction(() -> {
+            if (md5 != null) {
+                MessageDigest digest = Checksums.newMd5();
+                Checksums.update(digest, outputFile, outputFile.length());
+                verify(digest, journal);
+            }
+        });
+    }
+
+    private void verify(MessageDigest digest, DownloadJournal journal) throws Checksums.MismatchException {
+        try {
+            Checksums.verify(digest, md5);
+        } catch (Checksums.MismatchException e) {
+            // A corrupted archive must not be resumed, the next attempt starts from scratch
+            journal.delete();
+            outputFile.delete();
+            throw e;
+        }
+    }
+}
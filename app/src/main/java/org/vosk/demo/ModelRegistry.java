@@ -0,0 +1,205 @@
+package org.vosk.demo;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import org.vosk.Model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Completable;
+import io.reactivex.Single;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * Loaded models shared by path. A model is closed {@link #IDLE_TIMEOUT_MS} after its last lease
+ * is released, or right away on memory pressure.
+ */
+public class ModelRegistry implements ComponentCallbacks2 {
+
+    public static final long IDLE_TIMEOUT_MS = 60_000;
+    private static final String TAG = "ModelRegistry";
+
+    private static ModelRegistry instance;
+
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    private ModelRegistry() {
+    }
+
+    public static synchronized ModelRegistry getInstance(Context context) {
+        if (instance == null) {
+            instance = new ModelRegistry();
+            context.getApplicationContext().registerComponentCallbacks(instance);
+        }
+        return instance;
+    }
+
+    /**
+     * The lease belongs to the subscriber once it calls {@link Lease#claim()}, disposing before
+     * that gives it back.
+     */
+    public synchronized Single<Lease> acquire(String path) {
+        Entry entry = entries.get(path);
+        if (entry == null) {
+            entry = new Entry(path);
+            entries.put(path, entry);
+        }
+        entry.refCount++;
+        entry.cancelIdleClose();
+
+        Lease lease = new Lease(entry);
+        Entry leasedEntry = entry;
+        return entry.load
+                .map(model -> {
+                    lease.model = model;
+                    return lease;
+                })
+                .doOnError(error -> {
+                    lease.release();
+                    onLoadFailed(leasedEntry);
+                })
+                .doOnDispose(lease::releaseUnclaimed);
+    }
+
+    private synchronized void onLoadFailed(Entry entry) {
+        // Let the next lease try again instead of replaying the error
+        if (entries.get(entry.path) == entry) {
+            entries.remove(entry.path);
+        }
+    }
+
+    private synchronized void release(Entry entry) {
+        entry.refCount--;
+        if (entry.refCount == 0) {
+            entry.idleClose = Completable.timer(IDLE_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                    .subscribe(() -> closeIfIdle(entry));
+        }
+    }
+
+    private synchronized void closeIfIdle(Entry entry) {
+        if (entry.refCount > 0 || entries.get(entry.path) != entry) {
+            return;
+        }
+        entries.remove(entry.path);
+        entry.cancelIdleClose();
+        Log.d(TAG, "Closing idle model " + entry.path);
+        // A load still in flight is closed once it completes
+        entry.load.subscribe(model -> {
+            RecognizerPool.getInstance().retire(model);
+            model.close();
+        }, error -> {
+        });
+    }
+
+    private synchronized void closeIdleModels() {
+        for (Entry entry : new ArrayList<>(entries.values())) {
+            closeIfIdle(entry);
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            RecognizerPool.getInstance().trim();
+            closeIdleModels();
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        RecognizerPool.getInstance().trim();
+        closeIdleModels();
+    }
+
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig) {
+    }
+
+    /**
+     * Loaded or loading.
+     */
+    public synchronized List<String> getLoadedPaths() {
+        return new ArrayList<>(entries.keySet());
+    }
+
+    private static class Entry {
+        final String path;
+        final Single<Model> load;
+        int refCount;
+        Disposable idleClose;
+
+        Entry(String path) {
+            this.path = path;
+            this.load = Single.fromCallable(() -> new Model(path))
+                    .subscribeOn(Schedulers.io())
+                    .cache();
+        }
+
+        void cancelIdleClose() {
+            if (idleClose != null) {
+                idleClose.dispose();
+                idleClose = null;
+            }
+        }
+    }
+
+    /**
+     * Releasing twice has no effect.
+     */
+    public class Lease {
+        private final Entry entry;
+        private volatile Model model;
+        private boolean claimed;
+        private boolean released;
+
+        private Lease(Entry entry) {
+            this.entry = entry;
+        }
+
+        public Model getModel() {
+            return model;
+        }
+
+        /**
+         * @return false if the lease was given back already
+         */
+        public boolean claim() {
+            synchronized (ModelRegistry.this) {
+                claimed = !released;
+                return claimed;
+            }
+        }
+
+        /**
+         * For operators between {@link #acquire(String)} and the subscriber that can drop the lease.
+         */
+        public void releaseUnclaimed() {
+            synchronized (ModelRegistry.this) {
+                if (claimed) {
+                    return;
+                }
+            }
+            release();
+        }
+
+        public void release() {
+            synchronized (ModelRegistry.this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+            }
+            ModelRegistry.this.release(entry);
+        }
+    }
+}
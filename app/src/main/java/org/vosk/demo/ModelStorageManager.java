@@ -0,0 +1,208 @@
+package org.vosk.demo;
+
+import static org.vosk.demo.DownloadModelService.MODEL_FILE_ROOT_PATH;
+
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import org.vosk.demo.api.DownloadJournal;
+import org.vosk.demo.api.ModelManifest;
+import org.vosk.demo.ui.model_list.ModelItem;
+import org.vosk.demo.utils.PreferenceConstants;
+import org.vosk.demo.utils.ZipHelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the downloaded models within a disk budget. Every load of a model is recorded, and when
+ * the installed models take more than the budget the least recently used ones are deleted. The
+ * active model, models in the download queue and models that are loaded are never evicted.
+ * <p>
+ * All changes to the list of installed models go through this class, under one lock shared by
+ * every instance.
+ */
+public class ModelStorageManager {
+
+    public static final long UNLIMITED = 0;
+    private static final String TAG = "ModelStorageManager";
+    private static final Object LOCK = new Object();
+
+    private final SharedPreferences sharedPreferences;
+    private final Gson gson = new Gson();
+
+    public ModelStorageManager(SharedPreferences sharedPreferences) {
+        this.sharedPreferences = sharedPreferences;
+    }
+
+    public void markUsed(String modelName) {
+        synchronized (LOCK) {
+            Map<String, Long> lastUsed = getLastUsed();
+            lastUsed.put(modelName, System.currentTimeMillis());
+            sharedPreferences.edit().putString(PreferenceConstants.MODEL_LAST_USED, gson.toJson(lastUsed)).apply();
+        }
+    }
+
+    /**
+     * Records a model whose download completed, replacing the entry of the release it was
+     * installed from. A new model counts as used, the eviction makes room by removing older ones.
+     *
+     * @param md5 checksum of the verified archive, kept for later integrity checks, may be null
+     */
+    public void addOfflineModel(String modelName, String md5, String version) {
+        synchronized (LOCK) {
+            List<ModelItem> offlineModels = getOfflineModels();
+            offlineModels.removeIf(offlineModel -> modelName.equals(offlineModel.getName()));
+            ModelItem modelItem = new ModelItem(modelName);
+            modelItem.setMd5(md5);
+            modelItem.setVersion(version);
+            offlineModels.add(modelItem);
+            Map<String, Long> lastUsed = getLastUsed();
+            lastUsed.put(modelName, System.currentTimeMillis());
+            sharedPreferences.edit()
+                    .putString(PreferenceConstants.OFFLINE_LIST, gson.toJson(offlineModels))
+                    .putString(PreferenceConstants.MODEL_LAST_USED, gson.toJson(lastUsed))
+                    .apply();
+        }
+    }
+
+    /**
+     * Deletes the archive of a model once its extraction was verified, the extracted tree and
+     * its manifest are all that is needed from then on.
+     */
+    public void removeArchive(String modelName) {
+        File archive = new File(MODEL_FILE_ROOT_PATH, modelName + ".zip");
+        DownloadJournal.load(archive).delete();
+        archive.delete();
+    }
+
+    /**
+     * Evicts least recently used models until the installed ones fit in the budget set in the
+     * preferences. Walks the model directories, so it must not run on the main thread.
+     *
+     * @param registry models it has loaded or is loading are kept
+     */
+    public void enforceBudget(ModelRegistry registry) {
+        long budget = sharedPreferences.getLong(PreferenceConstants.MODEL_DISK_BUDGET, UNLIMITED);
+        if (budget <= UNLIMITED) {
+            return;
+        }
+        synchronized (LOCK) {
+            enforceBudget(budget, registry.getLoadedPaths());
+        }
+    }
+
+    private void enforceBudget(long budget, List<String> loadedPaths) {
+        List<ModelItem> offlineModels = getOfflineModels();
+        Map<String, Long> lastUsed = getLastUsed();
+        Map<String, Long> sizes = new HashMap<>();
+        long totalSize = 0;
+        for (ModelItem model : offlineModels) {
+            long size = getInstalledSize(new File(MODEL_FILE_ROOT_PATH, model.getName()));
+            sizes.put(model.getName(), size);
+            totalSize += size;
+        }
+        if (totalSize <= budget) {
+            return;
+        }
+
+        String activeModel = sharedPreferences.getString(PreferenceConstants.ACTIVE_MODEL, "");
+        DownloadQueue downloadQueue = new DownloadQueue(sharedPreferences);
+        List<ModelItem> candidates = new ArrayList<>();
+        for (ModelItem model : offlineModels) {
+            if (!model.getName().equals(activeModel) && !downloadQueue.contains(model.getName())
+                    && !isLoaded(model.getName(), loadedPaths)) {
+                candidates.add(model);
+            }
+        }
+        // Models never loaded since this was introduced count as the oldest
+        Collections.sort(candidates, (first, second) -> Long.compare(getOrZero(lastUsed, first.getName()), getOrZero(lastUsed, second.getName())));
+
+        for (ModelItem model : candidates) {
+            if (totalSize <= budget) {
+                break;
+            }
+            Log.i(TAG, "Evicting " + model.getName() + " to stay within " + budget + " bytes");
+            evict(model.getName(), offlineModels, lastUsed);
+            totalSize -= sizes.get(model.getName());
+        }
+        sharedPreferences.edit()
+                .putString(PreferenceConstants.OFFLINE_LIST, gson.toJson(offlineModels))
+                .putString(PreferenceConstants.MODEL_LAST_USED, gson.toJson(lastUsed))
+                .apply();
+    }
+
+    private void evict(String modelName, List<ModelItem> offlineModels, Map<String, Long> lastUsed) {
+        File modelDir = new File(MODEL_FILE_ROOT_PATH, modelName);
+        ZipHelper.deleteRecursively(modelDir);
+        ModelManifest.delete(modelDir);
+        removeArchive(modelName);
+        offlineModels.removeIf(model -> model.getName().equals(modelName));
+        lastUsed.remove(modelName);
+    }
+
+    private static boolean isLoaded(String modelName, List<String> loadedPaths) {
+        String modelDir = new File(MODEL_FILE_ROOT_PATH, modelName).getAbsolutePath() + File.separator;
+        for (String path : loadedPaths) {
+            if (path.startsWith(modelDir)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long getInstalledSize(File modelDir) {
+        try {
+            ModelManifest manifest = ModelManifest.load(modelDir);
+            if (manifest != null) {
+                long size = 0;
+                for (ModelManifest.Entry entry : manifest.getFiles()) {
+                    size += entry.getSize();
+                }
+                return size;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unreadable manifest for " + modelDir, e);
+        }
+        return getTreeSize(modelDir);
+    }
+
+    private static long getTreeSize(File file) {
+        File[] children = file.listFiles();
+        if (children == null) {
+            return file.length();
+        }
+        long size = 0;
+        for (File child : children) {
+            size += getTreeSize(child);
+        }
+        return size;
+    }
+
+    private static long getOrZero(Map<String, Long> lastUsed, String modelName) {
+        Long time = lastUsed.get(modelName);
+        return time != null ? time : 0;
+    }
+
+    private List<ModelItem> getOfflineModels() {
+        List<ModelItem> offlineModels = gson.fromJson(sharedPreferences.getString(PreferenceConstants.OFFLINE_LIST, "[]"),
+                new TypeToken<List<ModelItem>>() {
+                }.getType());
+        return offlineModels != null ? offlineModels : new ArrayList<>();
+    }
+
+    private Map<String, Long> getLastUsed() {
+        Map<String, Long> lastUsed = gson.fromJson(sharedPreferences.getString(PreferenceConstants.MODEL_LAST_USED, "{}"),
+                new TypeToken<Map<String, Long>>() {
+                }.getType());
+        return lastUsed != null ? lastUsed : new HashMap<>();
+    }
+}
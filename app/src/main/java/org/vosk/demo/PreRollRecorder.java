@@ -0,0 +1,191 @@
+package org.vosk.demo;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import org.vosk.Recognizer;
+import org.vosk.android.RecognitionListener;
+import org.vosk.demo.utils.AudioRingBuffer;
+
+import java.io.IOException;
+
+/**
+ * Microphone capture that buffers the last {@link #PRE_ROLL_MS} until a recognizer is attached.
+ * Used for one session only.
+ */
+public class PreRollRecorder {
+
+    public static final int PRE_ROLL_MS = 10_000;
+    private static final float CHUNK_SECONDS = 0.1f;
+    // Room for live audio in the recorder while the backlog is fed
+    private static final float RECORDER_BUFFER_SECONDS = 1f;
+    private static final int CATCH_UP_CHUNKS = 4;
+    private static final String TAG = "PreRollRecorder";
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final AudioRecord recorder;
+    private final AudioRingBuffer backlog;
+    private final int chunkSize;
+
+    private volatile Recognizer recognizer;
+    private volatile RecognitionListener listener;
+    private Thread captureThread;
+    private volatile boolean running;
+    private volatile boolean cancelled;
+    private volatile Exception failure;
+
+    public PreRollRecorder(float sampleRate) throws IOException {
+        int rate = (int) sampleRate;
+        chunkSize = Math.round(sampleRate * CHUNK_SECONDS);
+        int minBufferBytes = AudioRecord.getMinBufferSize(rate, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
+        int bufferBytes = Math.max(minBufferBytes, Math.round(sampleRate * RECORDER_BUFFER_SECONDS) * 2);
+        recorder = new AudioRecord(MediaRecorder.AudioSource.VOICE_RECOGNITION, rate,
+                AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT, bufferBytes);
+        if (recorder.getState() == AudioRecord.STATE_UNINITIALIZED) {
+            recorder.release();
+            throw new IOException("Failed to initialize recorder. Microphone might be already in use.");
+        }
+        backlog = new AudioRingBuffer(rate * PRE_ROLL_MS / 1000);
+    }
+
+    public synchronized void start() {
+        if (captureThread != null) {
+            return;
+        }
+        running = true;
+        captureThread = new Thread(this::capture, TAG);
+        captureThread.start();
+    }
+
+    /**
+     * Starts with the buffered pre-roll.
+     */
+    public synchronized void startListening(Recognizer recognizer, RecognitionListener listener) {
+        this.listener = listener;
+        this.recognizer = recognizer;
+        start();
+        Exception captureFailure = failure;
+        if (captureFailure != null) {
+            mainHandler.post(() -> listener.onError(captureFailure));
+        }
+    }
+
+    /**
+     * Stops capturing, the final result follows through the listener.
+     */
+    public boolean stop() {
+        return stopCapture();
+    }
+
+    /**
+     * Stops capturing without a final result.
+     */
+    public boolean cancel() {
+        cancelled = true;
+        return stopCapture();
+    }
+
+    public void shutdown() {
+        cancel();
+        recorder.release();
+    }
+
+    private synchronized boolean stopCapture() {
+        if (captureThread == null) {
+            return false;
+        }
+        running = false;
+        try {
+            captureThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        captureThread = null;
+        return true;
+    }
+
+    private void capture() {
+        short[] live = new short[chunkSize];
+        short[] pending = new short[chunkSize];
+        try {
+            recorder.startRecording();
+        } catch (IllegalStateException e) {
+            postError(new IOException("Failed to start recording. Microphone might be already in use.", e));
+            return;
+        }
+        if (recorder.getRecordingState() != AudioRecord.RECORDSTATE_RECORDING) {
+            recorder.stop();
+            postError(new IOException("Failed to start recording. Microphone might be already in use."));
+            return;
+        }
+
+        while (running) {
+            int read = recorder.read(live, 0, live.length);
+            if (read < 0) {
+                postError(new IOException("Error reading from microphone: " + read));
+                break;
+            }
+            backlog.write(live, read);
+            Recognizer rec = recognizer;
+            if (rec == null) {
+                continue;
+            }
+            // Live audio goes through the backlog too, so nothing is reordered or skipped
+            for (int i = 0; i < CATCH_UP_CHUNKS; i++) {
+                int samples = backlog.read(pending);
+                if (samples == 0) {
+                    break;
+                }
+                feed(rec, pending, samples);
+            }
+        }
+        recorder.stop();
+
+        Recognizer rec = recognizer;
+        if (rec != null && !cancelled) {
+            int samples;
+            while ((samples = backlog.read(pending)) > 0) {
+                feed(rec, pending, samples);
+            }
+            String result = rec.getFinalResult();
+            mainHandler.post(() -> {
+                if (!cancelled)
+                    listener.onFinalResult(result);
+            });
+        }
+        if (backlog.getDropped() > 0) {
+            Log.d(TAG, "Pre-roll dropped " + backlog.getDropped() + " samples");
+        }
+    }
+
+    private void feed(Recognizer rec, short[] samples, int length) {
+        if (rec.acceptWaveForm(samples, length)) {
+            String result = rec.getResult();
+            mainHandler.post(() -> {
+                if (!cancelled)
+                    listener.onResult(result);
+            });
+        } else {
+            String partial = rec.getPartialResult();
+            mainHandler.post(() -> {
+                if (!cancelled)
+                    listener.onPartialResult(partial);
+            });
+        }
+    }
+
+    private void postError(Exception e) {
+        failure = e;
+        mainHandler.post(() -> {
+            RecognitionListener current = listener;
+            if (current != null && !cancelled)
+                current.onError(e);
+            else
+                Log.w(TAG, "Capture failed", e);
+        });
+    }
+}
@@ -0,0 +1,295 @@
+package org.vosk.demo;
+
+import static org.vosk.demo.DownloadModelService.MODEL_FILE_ROOT_PATH;
+
+import android.app.Service;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.content.SharedPreferences;
+import android.os.Binder;
+import android.os.IBinder;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import org.vosk.Model;
+import org.vosk.Recognizer;
+import org.vosk.demo.api.ModelManifest;
+import org.vosk.demo.utils.PreferenceConstants;
+import org.vosk.demo.utils.ZipHelper;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Completable;
+import io.reactivex.Single;
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * Keeps the active model and a recognizer ready for voice input, for the keep-alive time after
+ * the last client unbinds.
+ */
+public class RecognitionEngineService extends Service {
+
+    public static final float SAMPLE_RATE = 16000.0f;
+    public static final long DEFAULT_KEEP_ALIVE_MS = 5 * 60_000;
+    public static final int DEFAULT_MAX_SESSIONS = 2;
+    private static final String TAG = "RecognitionEngine";
+    private static final String ACTION_KEEP_ALIVE = "org.vosk.demo.action.ENGINE_KEEP_ALIVE";
+
+    private final IBinder binder = new LocalBinder();
+    private final CompositeDisposable compositeDisposable = new CompositeDisposable();
+    private final ServiceConnection keepAliveConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+        }
+    };
+    private SharedPreferences sharedPreferences;
+    private ModelRegistry registry;
+
+    private String modelPath;
+    private Single<Model> modelLoad;
+    private ModelRegistry.Lease modelLease;
+    private Single<Recognizer> preparedRecognizer;
+    private Disposable keepAlive;
+    private boolean keepAliveBound;
+    private boolean destroyed;
+    private int openSessions;
+
+    public class LocalBinder extends Binder {
+        public RecognitionEngineService getService() {
+            return RecognitionEngineService.this;
+        }
+    }
+
+    public static boolean bind(Context context, ServiceConnection connection) {
+        return context.bindService(new Intent(context, RecognitionEngineService.class), connection, Context.BIND_AUTO_CREATE);
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        sharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
+        registry = ModelRegistry.getInstance(this);
+        prepareNextRecognizer();
+    }
+
+    @Nullable
+    @Override
+    public synchronized IBinder onBind(Intent intent) {
+        if (!ACTION_KEEP_ALIVE.equals(intent.getAction())) {
+            onClientsBound();
+        }
+        return binder;
+    }
+
+    @Override
+    public synchronized void onRebind(Intent intent) {
+        onClientsBound();
+    }
+
+    @Override
+    public synchronized boolean onUnbind(Intent intent) {
+        if (ACTION_KEEP_ALIVE.equals(intent.getAction())) {
+            return false;
+        }
+        scheduleStop();
+        // Get onRebind for the next client, which cancels the stop again
+        return true;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        synchronized (this) {
+            destroyed = true;
+            cancelStop();
+            releaseKeepAlive();
+            releaseModel();
+        }
+        compositeDisposable.clear();
+    }
+
+    /**
+     * @return false if the session has to be rejected, otherwise {@link #endSession()} must follow
+     */
+    public synchronized boolean admitSession() {
+        int maxSessions = sharedPreferences.getInt(PreferenceConstants.RECOGNITION_MAX_SESSIONS, DEFAULT_MAX_SESSIONS);
+        RecognizerPool.getInstance().setMaxSessions(maxSessions);
+        if (openSessions >= maxSessions) {
+            Log.w(TAG, "Rejecting session, " + openSessions + " of " + maxSessions + " running");
+            return false;
+        }
+        openSessions++;
+        return true;
+    }
+
+    public synchronized void endSession() {
+        if (openSessions > 0) {
+            openSessions--;
+        }
+    }
+
+    /**
+     * The caller gives the recognizer back to {@link RecognizerPool} when done.
+     */
+    public synchronized Single<Recognizer> takeRecognizer() {
+        Single<Model> model = getModel();
+        Single<Recognizer> recognizer = preparedRecognizer != null ? preparedRecognizer : createRecognizer(model);
+        preparedRecognizer = null;
+        return recognizer.doOnSuccess(taken -> prepareNextRecognizer());
+    }
+
+    private synchronized void prepareNextRecognizer() {
+        // A recognizer taken late by a client must not leave a new one behind a destroyed service
+        if (destroyed || preparedRecognizer != null || getActiveModelPath() == null) {
+            return;
+        }
+        Single<Recognizer> recognizer = createRecognizer(getModel());
+        preparedRecognizer = recognizer;
+        compositeDisposable.add(recognizer.subscribe(ready -> Log.d(TAG, "Recognizer ready"), error -> {
+            Log.w(TAG, "Could not prepare a recognizer", error);
+            onPrepareFailed(recognizer);
+        }));
+    }
+
+    private synchronized void onPrepareFailed(Single<Recognizer> recognizer) {
+        if (preparedRecognizer == recognizer) {
+            preparedRecognizer = null;
+        }
+    }
+
+    private static Single<Recognizer> createRecognizer(Single<Model> model) {
+        return model.observeOn(Schedulers.io())
+                .map(loaded -> RecognizerPool.getInstance().acquire(loaded, SAMPLE_RATE, null))
+                .cache();
+    }
+
+    private synchronized void discardPreparedRecognizer() {
+        if (preparedRecognizer != null) {
+            preparedRecognizer.subscribe(RecognizerPool.getInstance()::release, error -> {
+            });
+            preparedRecognizer = null;
+        }
+    }
+
+    private synchronized Single<Model> getModel() {
+        String path = getActiveModelPath();
+        if (path == null) {
+            return Single.error(new FileNotFoundException("No active model"));
+        }
+        if (modelLoad == null || !path.equals(modelPath)) {
+            releaseModel();
+            modelPath = path;
+            modelLoad = loadModel(path);
+        }
+        return modelLoad;
+    }
+
+    private Single<Model> loadModel(String path) {
+        File modelDir = new File(path).getParentFile();
+        return Single.fromCallable(() -> {
+                    ZipHelper.recoverPublish(modelDir);
+                    ModelManifest.checkInstalled(modelDir);
+                    return path;
+                })
+                .flatMap(registry::acquire)
+                .doOnSuccess(lease -> {
+                    onModelLoaded(path, lease);
+                    new ModelStorageManager(sharedPreferences).markUsed(modelDir.getName());
+                })
+                .map(ModelRegistry.Lease::getModel)
+                .doOnError(error -> onModelFailed(path))
+                .subscribeOn(Schedulers.io())
+                .cache();
+    }
+
+    private synchronized void onModelLoaded(String path, ModelRegistry.Lease lease) {
+        if (!lease.claim()) {
+            return;
+        }
+        if (path.equals(modelPath) && modelLease == null) {
+            modelLease = lease;
+        } else {
+            // The active model changed while this one was loading
+            lease.release();
+        }
+    }
+
+    private synchronized void onModelFailed(String path) {
+        // Let the next request try again instead of replaying the error
+        if (path.equals(modelPath)) {
+            modelLoad = null;
+            modelPath = null;
+        }
+    }
+
+    private synchronized void releaseModel() {
+        discardPreparedRecognizer();
+        if (modelLease != null) {
+            modelLease.release();
+            modelLease = null;
+        }
+        modelLoad = null;
+        modelPath = null;
+    }
+
+    @Nullable
+    private String getActiveModelPath() {
+        String activeModel = sharedPreferences.getString(PreferenceConstants.ACTIVE_MODEL, null);
+        if (activeModel == null) {
+            return null;
+        }
+        return new File(new File(MODEL_FILE_ROOT_PATH, activeModel), activeModel).getAbsolutePath();
+    }
+
+    private void onClientsBound() {
+        cancelStop();
+        if (!keepAliveBound) {
+            // Our own binding keeps the service alive for the keep-alive time after the clients leave
+            Intent intent = new Intent(this, RecognitionEngineService.class).setAction(ACTION_KEEP_ALIVE);
+            keepAliveBound = getApplicationContext().bindService(intent, keepAliveConnection, Context.BIND_AUTO_CREATE);
+        }
+    }
+
+    private void scheduleStop() {
+        cancelStop();
+        long keepAliveMs = sharedPreferences.getLong(PreferenceConstants.RECOGNITION_KEEP_ALIVE, DEFAULT_KEEP_ALIVE_MS);
+        keepAlive = Completable.timer(Math.max(0, keepAliveMs), TimeUnit.MILLISECONDS)
+                .subscribe(() -> {
+                    synchronized (this) {
+                        // A client came back while the timer fired
+                        if (keepAlive == null) {
+                            return;
+                        }
+                        keepAlive = null;
+                        Log.d(TAG, "No clients for " + keepAliveMs + " ms, stopping");
+                        releaseKeepAlive();
+                    }
+                });
+    }
+
+    private void cancelStop() {
+        if (keepAlive != null) {
+            keepAlive.dispose();
+            keepAlive = null;
+        }
+    }
+
+    private synchronized void releaseKeepAlive() {
+        if (keepAliveBound) {
+            keepAliveBound = false;
+            getApplicationContext().unbindService(keepAliveConnection);
+        }
+    }
+}
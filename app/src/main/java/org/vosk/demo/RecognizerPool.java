@@ -0,0 +1,232 @@
+package org.vosk.demo;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import org.vosk.Model;
+import org.vosk.Recognizer;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Reuses recognizers by model, sample rate and grammar, with at most {@link #getLimit()} alive
+ * at once.
+ */
+public class RecognizerPool {
+
+    /**
+     * Held outside of the engine sessions: the recognizer the engine keeps prepared and the
+     * microphone and file recognizers of the demo screen.
+     */
+    public static final int RESERVED_RECOGNIZERS = 3;
+    public static final int DEFAULT_LIMIT = RecognitionEngineService.DEFAULT_MAX_SESSIONS + RESERVED_RECOGNIZERS;
+    private static final String TAG = "RecognizerPool";
+
+    private static RecognizerPool instance;
+
+    // Oldest first
+    private final ArrayDeque<Pooled> idle = new ArrayDeque<>();
+    private final Map<Recognizer, Key> leased = new IdentityHashMap<>();
+    // Models closed by the registry, their recognizers are closed instead of pooled
+    private final Set<Model> retiredModels = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private int limit = DEFAULT_LIMIT;
+    // Slots taken by recognizers being built
+    private int creating;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long rejections;
+
+    private RecognizerPool() {
+    }
+
+    public static synchronized RecognizerPool getInstance() {
+        if (instance == null) {
+            instance = new RecognizerPool();
+        }
+        return instance;
+    }
+
+    /**
+     * @param grammar JSON list of phrases, or null for the full vocabulary
+     * @return a recognizer that must go back through {@link #release(Recognizer)}
+     * @throws IOException if the recognizer could not be created or all of them are in use
+     */
+    public Recognizer acquire(Model model, float sampleRate, @Nullable String grammar) throws IOException {
+        Key key = new Key(model, sampleRate, grammar);
+        synchronized (this) {
+            Iterator<Pooled> iterator = idle.descendingIterator();
+            while (iterator.hasNext()) {
+                Pooled pooled = iterator.next();
+                if (pooled.key.equals(key)) {
+                    iterator.remove();
+                    leased.put(pooled.recognizer, key);
+                    hits++;
+                    return pooled.recognizer;
+                }
+            }
+            if (getLiveCount() >= limit) {
+                if (idle.isEmpty()) {
+                    rejections++;
+                    throw new IOException("All " + limit + " recognizers are in use");
+                }
+                idle.removeFirst().recognizer.close();
+                evictions++;
+            }
+            misses++;
+            creating++;
+        }
+
+        // Building the native recognizer takes long, the pool is not locked meanwhile
+        Recognizer recognizer = null;
+        try {
+            recognizer = grammar != null ? new Recognizer(model, sampleRate, grammar) : new Recognizer(model, sampleRate);
+            return recognizer;
+        } finally {
+            synchronized (this) {
+                creating--;
+                if (recognizer != null) {
+                    leased.put(recognizer, key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Only once nothing feeds the recognizer audio anymore.
+     */
+    public synchronized void release(Recognizer recognizer) {
+        Key key = leased.remove(recognizer);
+        if (key == null || retiredModels.contains(key.model)) {
+            recognizer.close();
+            if (key != null && !isLeased(key.model)) {
+                retiredModels.remove(key.model);
+            }
+            return;
+        }
+        recognizer.reset();
+        idle.addLast(new Pooled(key, recognizer));
+    }
+
+    /**
+     * For a model about to be closed, its leased recognizers are closed on release.
+     */
+    public synchronized void retire(Model model) {
+        Iterator<Pooled> iterator = idle.iterator();
+        while (iterator.hasNext()) {
+            Pooled pooled = iterator.next();
+            if (pooled.key.model == model) {
+                iterator.remove();
+                pooled.recognizer.close();
+            }
+        }
+        if (isLeased(model)) {
+            retiredModels.add(model);
+        }
+    }
+
+    /**
+     * Closes every idle recognizer.
+     */
+    public synchronized void trim() {
+        for (Pooled pooled : idle) {
+            pooled.recognizer.close();
+        }
+        evictions += idle.size();
+        idle.clear();
+    }
+
+    private boolean isLeased(Model model) {
+        for (Key key : leased.values()) {
+            if (key.model == model) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Makes room for every session the engine admits next to the reserved recognizers.
+     */
+    public synchronized void setMaxSessions(int maxSessions) {
+        limit = Math.max(1, maxSessions) + RESERVED_RECOGNIZERS;
+    }
+
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    public synchronized int getLiveCount() {
+        return idle.size() + leased.size() + creating;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getRejections() {
+        return rejections;
+    }
+
+    public synchronized float getHitRate() {
+        long requests = hits + misses;
+        return requests == 0 ? 0 : (float) hits / requests;
+    }
+
+    public synchronized void logStats() {
+        Log.d(TAG, "hits=" + hits + " misses=" + misses + " evictions=" + evictions + " rejections=" + rejections
+                + " live=" + getLiveCount() + " idle=" + idle.size());
+    }
+
+    private static class Key {
+        final Model model;
+        final float sampleRate;
+        final String grammar;
+
+        Key(Model model, float sampleRate, String grammar) {
+            this.model = model;
+            this.sampleRate = sampleRate;
+            this.grammar = grammar;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return model == key.model && Float.compare(key.sampleRate, sampleRate) == 0 && Objects.equals(grammar, key.grammar);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(model), sampleRate, grammar);
+        }
+    }
+
+    private static class Pooled {
+        final Key key;
+        final Recognizer recognizer;
+
+        Pooled(Key key, Recognizer recognizer) {
+            this.key = key;
+            this.recognizer = recognizer;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package org.vosk.demo;
+
+import android.content.SharedPreferences;
+import android.os.StatFs;
+
+import org.vosk.demo.api.ModelManifest;
+import org.vosk.demo.utils.PreferenceConstants;
+
+import java.io.File;
+
+/**
+ * Estimates how much storage a queued model needs at its peak, the archive and the extracted
+ * tree side by side, so a download that can't fit is held back before any byte is transferred.
+ */
+public class StoragePlanner {
+
+    /**
+     * Models are mostly binary data that barely compresses, the extracted tree is assumed to
+     * take at most this multiple of the archive.
+     */
+    public static final float EXTRACTED_SIZE_RATIO = 1.5f;
+    /**
+     * Left free for the rest of the system.
+     */
+    public static final long FREE_SPACE_RESERVE = 64 * 1024 * 1024;
+
+    private final File root;
+    private final SharedPreferences sharedPreferences;
+
+    public StoragePlanner(File root, SharedPreferences sharedPreferences) {
+        this.root = root;
+        this.sharedPreferences = sharedPreferences;
+    }
+
+    /**
+     * @return bytes the download and extraction of the model still have to claim, 0 if the
+     * catalog did not give a size
+     */
+    public long getRequiredBytes(DownloadQueue.Item item) {
+        long archiveSize = item.getSize();
+        if (archiveSize <= 0) {
+            return 0;
+        }
+        long extractedSize = (long) (archiveSize * EXTRACTED_SIZE_RATIO);
+        if (item.isUpdate() && ModelManifest.getFile(new File(root, item.getModelName())).exists()) {
+            // Only the changed files are staged, at most the whole extracted release. Without an
+            // installed manifest the update downloads the full archive.
+            return extractedSize;
+        }
+        if (sharedPreferences.getBoolean(PreferenceConstants.STREAMING_EXTRACTION, false)) {
+            return extractedSize;
+        }
+        // A partial archive from an earlier attempt already took its share
+        File archive = new File(root, item.getModelName() + ".zip");
+        return Math.max(0, archiveSize - archive.length()) + extractedSize;
+    }
+
+    /**
+     * @param reservedBytes space already promised to downloads that are running
+     */
+    public boolean fits(DownloadQueue.Item item, long reservedBytes) {
+        return getRequiredBytes(item) + reservedBytes + FREE_SPACE_RESERVE <= getAvailableBytes();
+    }
+
+    private long getAvailableBytes() {
+        // The models directory is only created by the first download
+        File dir = root.exists() ? root : root.getParentFile();
+        return new StatFs(dir.getPath()).getAvailableBytes();
+    }
+}
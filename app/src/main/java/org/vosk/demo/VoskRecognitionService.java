@@ -0,0 +1,269 @@
+package org.vosk.demo;
+
+import android.content.ComponentName;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Bundle;
+import android.os.IBinder;
+import android.os.RemoteException;
+import android.speech.RecognitionService;
+import android.speech.SpeechRecognizer;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.vosk.Recognizer;
+import org.vosk.android.RecognitionListener;
+import org.vosk.android.SpeechService;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import io.reactivex.Single;
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.subjects.SingleSubject;
+
+/**
+ * {@link SpeechRecognizer} backend for other apps, running on {@link RecognitionEngineService}.
+ */
+public class VoskRecognitionService extends RecognitionService {
+
+    private static final String TAG = "VoskRecognitionService";
+    private static final int SESSION_TIMEOUT_MS = 10_000;
+
+    private final SingleSubject<RecognitionEngineService> engineReady = SingleSubject.create();
+    private Session session;
+
+    private final ServiceConnection engineConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            engineReady.onSuccess(((RecognitionEngineService.LocalBinder) binder).getService());
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+        }
+    };
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        RecognitionEngineService.bind(this, engineConnection);
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        if (session != null) {
+            session.finish();
+        }
+        unbindService(engineConnection);
+    }
+
+    @Override
+    protected void onStartListening(Intent recognizerIntent, Callback listener) {
+        if (session != null) {
+            session.finish();
+        }
+        session = new Session(listener);
+        session.start();
+    }
+
+    @Override
+    protected void onStopListening(Callback listener) {
+        if (session != null) {
+            session.stop();
+        }
+    }
+
+    @Override
+    protected void onCancel(Callback listener) {
+        if (session != null) {
+            session.finish();
+        }
+    }
+
+    /**
+     * Runs on the main thread.
+     */
+    private class Session implements RecognitionListener {
+        private final Callback callback;
+        private RecognitionEngineService engine;
+        private Single<Recognizer> pendingRecognizer;
+        private Recognizer recognizer;
+        private SpeechService speechService;
+        private final CompositeDisposable disposables = new CompositeDisposable();
+        private String partial = "";
+        private boolean speechStarted;
+        private boolean finished;
+
+        Session(Callback callback) {
+            this.callback = callback;
+        }
+
+        void start() {
+            disposables.add(engineReady.subscribe(this::open, error -> fail(SpeechRecognizer.ERROR_CLIENT)));
+        }
+
+        private void open(RecognitionEngineService service) {
+            if (finished) {
+                return;
+            }
+            if (!service.admitSession()) {
+                fail(SpeechRecognizer.ERROR_RECOGNIZER_BUSY);
+                return;
+            }
+            engine = service;
+            pendingRecognizer = service.takeRecognizer();
+            disposables.add(pendingRecognizer
+                    .observeOn(AndroidSchedulers.mainThread())
+                    .subscribe(this::listen, error -> {
+                        Log.w(TAG, "No recognizer for the session", error);
+                        fail(SpeechRecognizer.ERROR_SERVER);
+                    }));
+        }
+
+        private void listen(Recognizer rec) {
+            recognizer = rec;
+            try {
+                speechService = new SpeechService(rec, RecognitionEngineService.SAMPLE_RATE);
+                speechService.startListening(this, SESSION_TIMEOUT_MS);
+                callback.readyForSpeech(new Bundle());
+            } catch (IOException e) {
+                Log.w(TAG, "Could not start the microphone", e);
+                fail(SpeechRecognizer.ERROR_AUDIO);
+            } catch (RemoteException e) {
+                finish();
+            }
+        }
+
+        /**
+         * The result follows in {@link #onFinalResult}.
+         */
+        void stop() {
+            if (speechService != null) {
+                speechService.stop();
+            } else {
+                fail(SpeechRecognizer.ERROR_NO_MATCH);
+            }
+        }
+
+        @Override
+        public void onPartialResult(String hypothesis) {
+            String text = getText(hypothesis, "partial");
+            if (finished || text.isEmpty() || text.equals(partial)) {
+                return;
+            }
+            partial = text;
+            try {
+                if (!speechStarted) {
+                    speechStarted = true;
+                    callback.beginningOfSpeech();
+                }
+                callback.partialResults(toBundle(text));
+            } catch (RemoteException e) {
+                finish();
+            }
+        }
+
+        @Override
+        public void onResult(String hypothesis) {
+            // Silence between utterances gives empty results, the session waits for speech
+            String text = getText(hypothesis, "text");
+            if (!text.isEmpty()) {
+                deliver(text);
+            }
+        }
+
+        @Override
+        public void onFinalResult(String hypothesis) {
+            String text = getText(hypothesis, "text");
+            if (text.isEmpty()) {
+                fail(SpeechRecognizer.ERROR_NO_MATCH);
+            } else {
+                deliver(text);
+            }
+        }
+
+        @Override
+        public void onError(Exception exception) {
+            Log.w(TAG, "Recognition failed", exception);
+            fail(SpeechRecognizer.ERROR_AUDIO);
+        }
+
+        @Override
+        public void onTimeout() {
+            if (partial.isEmpty()) {
+                fail(SpeechRecognizer.ERROR_SPEECH_TIMEOUT);
+            } else {
+                deliver(partial);
+            }
+        }
+
+        private void deliver(String text) {
+            if (finished) {
+                return;
+            }
+            try {
+                callback.endOfSpeech();
+                callback.results(toBundle(text));
+            } catch (RemoteException e) {
+                Log.w(TAG, "Caller went away before the results", e);
+            }
+            finish();
+        }
+
+        private void fail(int error) {
+            if (finished) {
+                return;
+            }
+            try {
+                callback.error(error);
+            } catch (RemoteException e) {
+                Log.w(TAG, "Caller went away before the error", e);
+            }
+            finish();
+        }
+
+        void finish() {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            disposables.dispose();
+            if (speechService != null) {
+                speechService.cancel();
+                speechService.shutdown();
+            }
+            if (recognizer != null) {
+                RecognizerPool.getInstance().release(recognizer);
+            } else if (pendingRecognizer != null) {
+                // Still being built, give it back once it is there
+                pendingRecognizer.subscribe(RecognizerPool.getInstance()::release, error -> {
+                });
+            }
+            if (engine != null) {
+                engine.endSession();
+            }
+            if (session == this) {
+                session = null;
+            }
+        }
+    }
+
+    private static String getText(String hypothesis, String key) {
+        try {
+            return new JSONObject(hypothesis).optString(key, "");
+        } catch (JSONException e) {
+            return "";
+        }
+    }
+
+    private static Bundle toBundle(String text) {
+        Bundle bundle = new Bundle();
+        bundle.putStringArrayList(SpeechRecognizer.RESULTS_RECOGNITION, new ArrayList<>(Collections.singletonList(text)));
+        return bundle;
+    }
+}
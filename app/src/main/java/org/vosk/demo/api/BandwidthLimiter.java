@@ -0,0 +1,83 @@
+package org.vosk.demo.api;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import okhttp3.Interceptor;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Okio;
+
+/**
+ * Global download budget shared by every response of the client it is installed on. Reads take
+ * tokens from one bucket, a read that overdraws it sleeps until the debt is paid back, so the
+ * sum of all concurrent transfers stays at the configured rate.
+ */
+public class BandwidthLimiter implements Interceptor {
+
+    public static final long UNLIMITED = 0;
+
+    private long bytesPerSecond = UNLIMITED;
+    private long availableBytes;
+    private long lastRefillTime;
+
+    public synchronized void setBytesPerSecond(long bytesPerSecond) {
+        this.bytesPerSecond = Math.max(UNLIMITED, bytesPerSecond);
+        this.availableBytes = this.bytesPerSecond;
+        this.lastRefillTime = System.currentTimeMillis();
+    }
+
+    public synchronized long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    @NonNull
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Response originalResponse = chain.proceed(chain.request());
+        ResponseBody body = originalResponse.body();
+        if (body == null) {
+            return originalResponse;
+        }
+
+        ForwardingSource throttledSource = new ForwardingSource(body.source()) {
+            @Override
+            public long read(Buffer sink, long byteCount) throws IOException {
+                long bytesRead = super.read(sink, byteCount);
+                if (bytesRead > 0) {
+                    acquire(bytesRead);
+                }
+                return bytesRead;
+            }
+        };
+        return originalResponse.newBuilder()
+                .body(ResponseBody.create(body.contentType(), body.contentLength(), Okio.buffer(throttledSource)))
+                .build();
+    }
+
+    private void acquire(long bytes) throws InterruptedIOException {
+        long waitMs;
+        synchronized (this) {
+            if (bytesPerSecond == UNLIMITED) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            availableBytes = Math.min(bytesPerSecond, availableBytes + (now - lastRefillTime) * bytesPerSecond / 1000);
+            lastRefillTime = now;
+            availableBytes -= bytes;
+            waitMs = availableBytes < 0 ? -availableBytes * 1000 / bytesPerSecond : 0;
+        }
+        if (waitMs > 0) {
+            try {
+                Thread.sleep(waitMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Download throttling interrupted");
+            }
+        }
+    }
+}
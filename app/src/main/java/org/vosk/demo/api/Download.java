@@ -9,8 +9,10 @@ public class Download {
     public final static int RESTARTING = 204;
 
     private int progress;
+    private int phase;
     private long currentFileSize;
     private long totalFileSize;
+    private DownloadStats stats;
     String modelName;
 
     public Download() {
@@ -40,6 +42,17 @@ public class Download {
         this.progress = progress;
     }
 
+    /**
+     * {@link #UNZIPPING} when the progress is the extracted percentage, 0 for the download.
+     */
+    public int getPhase() {
+        return phase;
+    }
+
+    public void setPhase(int phase) {
+        this.phase = phase;
+    }
+
     public long getCurrentFileSize() {
         return currentFileSize;
     }
@@ -56,6 +69,17 @@ public class Download {
         this.totalFileSize = totalFileSize;
     }
 
+    /**
+     * Live telemetry of the transfer, null for events that are not about a running transfer.
+     */
+    public DownloadStats getStats() {
+        return stats;
+    }
+
+    public void setStats(DownloadStats stats) {
+        this.stats = stats;
+    }
+
     public String getModelName() {
         return modelName;
     }
@@ -0,0 +1,51 @@
+package org.vosk.demo.api;
+
+import androidx.annotation.NonNull;
+
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+
+/**
+ * Feeds the connection level part of {@link DownloadStats}: time to first byte and whether the
+ * call opened a connection or reused a pooled one. Calls without a stats tag are ignored.
+ */
+public class DownloadEventListener extends EventListener {
+
+    public static final Factory FACTORY = call -> {
+        DownloadStats stats = call.request().tag(DownloadStats.class);
+        return stats != null ? new DownloadEventListener(stats) : NONE;
+    };
+
+    private final DownloadStats stats;
+    private long callStartTime;
+    private boolean connected;
+
+    private DownloadEventListener(DownloadStats stats) {
+        this.stats = stats;
+    }
+
+    @Override
+    public void callStart(@NonNull Call call) {
+        callStartTime = System.currentTimeMillis();
+    }
+
+    @Override
+    public void connectStart(@NonNull Call call, @NonNull InetSocketAddress inetSocketAddress, @NonNull Proxy proxy) {
+        connected = true;
+    }
+
+    @Override
+    public void connectionAcquired(@NonNull Call call, @NonNull Connection connection) {
+        stats.onConnectionAcquired(!connected);
+        connected = false;
+    }
+
+    @Override
+    public void responseHeadersStart(@NonNull Call call) {
+        stats.onFirstByte(System.currentTimeMillis() - callStartTime);
+    }
+}
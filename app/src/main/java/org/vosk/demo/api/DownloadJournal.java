@@ -0,0 +1,258 @@
+package org.vosk.demo.api;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.List;
+
+import okhttp3.Headers;
+
+/**
+ * Small sidecar file kept next to a partially downloaded archive. It remembers the validators
+ * of the response the bytes on disk came from, and the mirror that sent it, so the transfer can
+ * be resumed with a Range request even after the process has been killed.
+ */
+public class DownloadJournal {
+
+    private static final String JOURNAL_SUFFIX = ".journal";
+    private static final String WEAK_ETAG_PREFIX = "W/";
+    private static final long PROGRESS_SAVE_INTERVAL_MS = 1000;
+
+    private String origin;
+    private String etag;
+    private String lastModified;
+    private long contentLength = -1;
+    private boolean complete;
+    private List<Segment> segments;
+
+    private transient File journalFile;
+    private transient long lastProgressSave;
+
+    public static DownloadJournal load(File target) {
+        File journalFile = new File(target.getParentFile(), target.getName() + JOURNAL_SUFFIX);
+        DownloadJournal journal = null;
+        if (journalFile.exists()) {
+            try (Reader reader = new FileReader(journalFile)) {
+                journal = new Gson().fromJson(reader, DownloadJournal.class);
+            } catch (IOException | JsonParseException e) {
+                e.printStackTrace();
+            }
+        }
+        if (journal == null) {
+            journal = new DownloadJournal();
+        }
+        journal.journalFile = journalFile;
+        return journal;
+    }
+
+    /**
+     * Number of bytes already on disk that can be kept when resuming from {@code origin}. A file
+     * without a validator usable there is thrown away, because there is no way to make sure the
+     * server still serves the same archive.
+     */
+    public long getResumeOffset(File target, MirrorSelector.Origin origin) {
+        // A segmented download writes out of order, so the file length says nothing about progress
+        if (complete || segments != null || getValidator(origin) == null || !target.exists()) {
+            return 0;
+        }
+        return target.length();
+    }
+
+    public String getRangeHeader(long offset) {
+        return offset > 0 ? "bytes=" + offset + "-" : null;
+    }
+
+    public String getIfRangeHeader(long offset, MirrorSelector.Origin origin) {
+        return offset > 0 ? getValidator(origin) : null;
+    }
+
+    /**
+     * @param origin mirror the response came from, null if unknown
+     */
+    public void start(MirrorSelector.Origin origin, Headers headers, long contentLength) throws IOException {
+        this.origin = origin != null ? origin.toString() : null;
+        this.etag = headers.get("ETag");
+        this.lastModified = headers.get("Last-Modified");
+        this.contentLength = contentLength;
+        this.complete = false;
+        this.segments = null;
+        save();
+    }
+
+    public void startSegmented(MirrorSelector.Origin origin, Headers headers, long contentLength,
+                               List<Segment> segments) throws IOException {
+        this.origin = origin != null ? origin.toString() : null;
+        this.etag = headers.get("ETag");
+        this.lastModified = headers.get("Last-Modified");
+        this.contentLength = contentLength;
+        this.complete = false;
+        this.segments = segments;
+        save();
+    }
+
+    public boolean hasSegments() {
+        return segments != null && !segments.isEmpty();
+    }
+
+    public List<Segment> getSegments() {
+        return segments;
+    }
+
+    public long getSegmentedBytes() {
+        long bytes = 0;
+        if (segments != null) {
+            for (Segment segment : segments) {
+                bytes += segment.getPosition() - segment.getStart();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Persists segment positions, at most once per {@link #PROGRESS_SAVE_INTERVAL_MS}. Losing the
+     * last second of progress on a crash only means downloading those bytes again.
+     */
+    public void saveProgress() throws IOException {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            if (now - lastProgressSave < PROGRESS_SAVE_INTERVAL_MS) {
+                return;
+            }
+            lastProgressSave = now;
+        }
+        save();
+    }
+
+    public void markComplete() throws IOException {
+        complete = true;
+        save();
+    }
+
+    public boolean isComplete(File target) {
+        return complete && target.exists() && (contentLength < 0 || target.length() == contentLength);
+    }
+
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    public void delete() {
+        if (journalFile.exists() && !journalFile.delete()) {
+            journalFile.deleteOnExit();
+        }
+        origin = null;
+        etag = null;
+        lastModified = null;
+        contentLength = -1;
+        complete = false;
+        segments = null;
+    }
+
+    /**
+     * Entity tags are specific to the server that issued them, another mirror would never match
+     * one and answer with the whole archive. There only the modification date is sent.
+     *
+     * @return the If-Range value for a request to {@code origin}, null if the bytes on disk can't
+     * be resumed from it
+     */
+    String getValidator(MirrorSelector.Origin origin) {
+        if (origin == null || this.origin == null || origin.toString().equals(this.origin)) {
+            return getValidator(etag, lastModified);
+        }
+        return lastModified;
+    }
+
+    /**
+     * Checks the complete length in the {@code Content-Range} of a partial response against the
+     * archive the bytes on disk belong to.
+     */
+    public boolean matchesLength(Headers headers) {
+        long length = getCompleteLength(headers);
+        return contentLength < 0 || length < 0 || length == contentLength;
+    }
+
+    /**
+     * @return the complete length from a {@code bytes 0-0/12345} header, or -1 if it is unknown
+     */
+    static long getCompleteLength(Headers headers) {
+        String contentRange = headers.get("Content-Range");
+        if (contentRange == null) {
+            return -1;
+        }
+        int slash = contentRange.lastIndexOf('/');
+        if (slash == -1 || slash == contentRange.length() - 1) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the validator a response can be resumed with, null if it has none
+     */
+    static String getValidator(Headers headers) {
+        return getValidator(headers.get("ETag"), headers.get("Last-Modified"));
+    }
+
+    private static String getValidator(String etag, String lastModified) {
+        // Weak entity tags must not be used in If-Range, fall back to the modification date.
+        if (etag != null && !etag.startsWith(WEAK_ETAG_PREFIX)) {
+            return etag;
+        }
+        return lastModified;
+    }
+
+    private synchronized void save() throws IOException {
+        try (Writer writer = new FileWriter(journalFile)) {
+            new Gson().toJson(this, writer);
+        }
+    }
+
+    /**
+     * Inclusive byte range of the archive fetched by one connection, together with the offset the
+     * next byte of the range is written to.
+     */
+    public static class Segment {
+        private long start;
+        private long end;
+        private volatile long position;
+
+        public Segment() {
+        }
+
+        public Segment(long start, long end) {
+            this.start = start;
+            this.end = end;
+            this.position = start;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public long getEnd() {
+            return end;
+        }
+
+        public long getPosition() {
+            return position;
+        }
+
+        public void setPosition(long position) {
+            this.position = position;
+        }
+
+        public boolean isComplete() {
+            return position > end;
+        }
+    }
+}
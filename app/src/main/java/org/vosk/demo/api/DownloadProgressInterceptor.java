@@ -7,18 +7,20 @@ import java.io.IOException;
 import okhttp3.Interceptor;
 import okhttp3.Response;
 
+/**
+ * Wraps the response body of every request tagged with a {@link DownloadProgressListener}, so
+ * one client can serve downloads that report progress to different listeners.
+ */
 public class DownloadProgressInterceptor implements Interceptor {
 
-    private DownloadProgressListener listener;
-
-    public DownloadProgressInterceptor(DownloadProgressListener listener) {
-        this.listener = listener;
-    }
-
     @NonNull
     @Override
     public Response intercept(Chain chain) throws IOException {
         Response originalResponse = chain.proceed(chain.request());
+        DownloadProgressListener listener = chain.request().tag(DownloadProgressListener.class);
+        if (listener == null || originalResponse.body() == null) {
+            return originalResponse;
+        }
 
         return originalResponse.newBuilder()
                 .body(new DownloadProgressResponseBody(originalResponse.body(), listener))
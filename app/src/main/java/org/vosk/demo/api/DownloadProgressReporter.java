@@ -0,0 +1,75 @@
+package org.vosk.demo.api;
+
+import android.util.Log;
+
+import org.vosk.demo.utils.EventBus;
+
+/**
+ * Turns the per-read callbacks of {@link DownloadProgressResponseBody} into progress events.
+ * An event is only posted when the visible percentage changes and at most once per
+ * {@code minIntervalMs}, so a large model does not produce hundreds of thousands of objects and
+ * log lines. Each event is a new {@link Download} with a copy of the stats, the subscribers read
+ * it on other threads while the transfer goes on.
+ */
+public class DownloadProgressReporter implements DownloadProgressListener {
+
+    public static final long DEFAULT_MIN_INTERVAL_MS = 250;
+    private static final String TAG = "DOWNLOAD";
+
+    private final String modelName;
+    private final DownloadStats stats;
+    private final long minIntervalMs;
+
+    private long baseOffset;
+    private int lastProgress = -1;
+    private long lastEmitTime;
+
+    public DownloadProgressReporter(String modelName) {
+        this(modelName, DEFAULT_MIN_INTERVAL_MS);
+    }
+
+    public DownloadProgressReporter(String modelName, long minIntervalMs) {
+        this.modelName = modelName;
+        this.minIntervalMs = minIntervalMs;
+        this.stats = new DownloadStats(modelName);
+    }
+
+    public DownloadStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Bytes that were already on disk before the current response, a resumed transfer only
+     * reports the remaining part of the archive.
+     */
+    public synchronized void setBaseOffset(long baseOffset) {
+        this.baseOffset = baseOffset;
+    }
+
+    @Override
+    public synchronized void update(long bytesRead, long contentLength, boolean done) {
+        stats.onBytes(bytesRead);
+        if (contentLength <= 0) {
+            return;
+        }
+        long currentFileSize = baseOffset + bytesRead;
+        long totalFileSize = baseOffset + contentLength;
+        int progress = (int) ((currentFileSize * 100) / totalFileSize);
+        if (progress == lastProgress) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        if (!done && progress < 100 && now - lastEmitTime < minIntervalMs) {
+            return;
+        }
+        lastProgress = progress;
+        lastEmitTime = now;
+
+        Download download = new Download(progress, currentFileSize, totalFileSize);
+        download.setModelName(modelName);
+        download.setStats(stats.copy());
+        Log.d(TAG, modelName + " progress: " + progress);
+        EventBus.getInstance().postDownloadStatus(download);
+    }
+}
@@ -0,0 +1,187 @@
+package org.vosk.demo.api;
+
+/**
+ * Transfer telemetry of one model download: rates, time to first byte, connection reuse,
+ * retries and stalls. Updated from the network threads, read through {@link #copy()}, which is
+ * also the summary record kept once the download is over.
+ */
+public class DownloadStats {
+
+    /**
+     * A gap between two reads longer than this counts as a stall.
+     */
+    public static final long STALL_THRESHOLD_MS = 2000;
+    private static final long RATE_WINDOW_MS = 1000;
+
+    private String modelName;
+    private long startTime;
+    private long endTime;
+    private boolean successful;
+    private long bytesTransferred;
+    private long currentBytesPerSecond;
+    private long timeToFirstByteMs = -1;
+    private int newConnections;
+    private int reusedConnections;
+    private int retries;
+    private int stalls;
+    private long stalledMs;
+    private long longestStallMs;
+
+    private transient long lastReadTime;
+    private transient long lastBytes = -1;
+    private transient long windowStartTime;
+    private transient long windowStartBytes;
+
+    public DownloadStats() {
+    }
+
+    public DownloadStats(String modelName) {
+        this.modelName = modelName;
+        this.startTime = System.currentTimeMillis();
+    }
+
+    /**
+     * @param bytes bytes read so far by the current response, or by all ranges of a segmented
+     *              download. A smaller value than last time means a new response started.
+     */
+    public synchronized void onBytes(long bytes) {
+        long now = System.currentTimeMillis();
+        if (lastBytes < 0 || bytes < lastBytes) {
+            lastBytes = bytes;
+            lastReadTime = now;
+            windowStartTime = now;
+            windowStartBytes = bytesTransferred;
+            return;
+        }
+
+        long gap = now - lastReadTime;
+        if (gap > STALL_THRESHOLD_MS) {
+            stalls++;
+            stalledMs += gap;
+            longestStallMs = Math.max(longestStallMs, gap);
+        }
+        bytesTransferred += bytes - lastBytes;
+        lastBytes = bytes;
+        lastReadTime = now;
+
+        if (now - windowStartTime >= RATE_WINDOW_MS) {
+            currentBytesPerSecond = (bytesTransferred - windowStartBytes) * 1000 / (now - windowStartTime);
+            windowStartTime = now;
+            windowStartBytes = bytesTransferred;
+        }
+    }
+
+    /**
+     * Only the first response of the download counts, later ones are resumes or ranges.
+     */
+    public synchronized void onFirstByte(long elapsedMs) {
+        if (timeToFirstByteMs < 0) {
+            timeToFirstByteMs = elapsedMs;
+        }
+    }
+
+    public synchronized void onConnectionAcquired(boolean reused) {
+        if (reused) {
+            reusedConnections++;
+        } else {
+            newConnections++;
+        }
+    }
+
+    public synchronized void onRetry() {
+        retries++;
+        lastBytes = -1;
+    }
+
+    public synchronized void finish(boolean successful) {
+        this.successful = successful;
+        this.endTime = System.currentTimeMillis();
+        this.currentBytesPerSecond = 0;
+    }
+
+    public synchronized DownloadStats copy() {
+        DownloadStats copy = new DownloadStats(modelName);
+        copy.startTime = startTime;
+        copy.endTime = endTime;
+        copy.successful = successful;
+        copy.bytesTransferred = bytesTransferred;
+        copy.currentBytesPerSecond = currentBytesPerSecond;
+        copy.timeToFirstByteMs = timeToFirstByteMs;
+        copy.newConnections = newConnections;
+        copy.reusedConnections = reusedConnections;
+        copy.retries = retries;
+        copy.stalls = stalls;
+        copy.stalledMs = stalledMs;
+        copy.longestStallMs = longestStallMs;
+        return copy;
+    }
+
+    public String getModelName() {
+        return modelName;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return 0 while the download is running
+     */
+    public long getEndTime() {
+        return endTime;
+    }
+
+    public boolean isSuccessful() {
+        return successful;
+    }
+
+    public long getBytesTransferred() {
+        return bytesTransferred;
+    }
+
+    /**
+     * Rate over the last second of the transfer.
+     */
+    public long getCurrentBytesPerSecond() {
+        return currentBytesPerSecond;
+    }
+
+    /**
+     * Rate since the download started, stalls and retries included.
+     */
+    public synchronized long getAverageBytesPerSecond() {
+        long elapsed = (endTime > 0 ? endTime : System.currentTimeMillis()) - startTime;
+        return elapsed > 0 ? bytesTransferred * 1000 / elapsed : 0;
+    }
+
+    /**
+     * @return -1 until the first response headers arrived
+     */
+    public long getTimeToFirstByteMs() {
+        return timeToFirstByteMs;
+    }
+
+    public int getNewConnections() {
+        return newConnections;
+    }
+
+    public int getReusedConnections() {
+        return reusedConnections;
+    }
+
+    public int getRetries() {
+        return retries;
+    }
+
+    public int getStalls() {
+        return stalls;
+    }
+
+    public long getStalledMs() {
+        return stalledMs;
+    }
+
+    public long getLongestStallMs() {
+        return longestStallMs;
+    }
+}
@@ -0,0 +1,50 @@
+package org.vosk.demo.api;
+
+import org.vosk.demo.utils.EventBus;
+import org.vosk.demo.utils.ZipHelper;
+
+/**
+ * Posts the extraction progress of a model as events in the {@link Download#UNZIPPING} phase,
+ * throttled like {@link DownloadProgressReporter}: only when the percentage changes and at most
+ * once per {@code minIntervalMs}.
+ */
+public class ExtractionProgressReporter implements ZipHelper.ProgressListener {
+
+    private final String modelName;
+    private final long minIntervalMs;
+
+    private int lastPercent = -1;
+    private long lastEmitTime;
+
+    public ExtractionProgressReporter(String modelName) {
+        this(modelName, DownloadProgressReporter.DEFAULT_MIN_INTERVAL_MS);
+    }
+
+    public ExtractionProgressReporter(String modelName, long minIntervalMs) {
+        this.modelName = modelName;
+        this.minIntervalMs = minIntervalMs;
+    }
+
+    @Override
+    public synchronized void onProgress(long extractedBytes, long totalBytes) {
+        if (totalBytes <= 0) {
+            return;
+        }
+        int percent = (int) Math.min(100, (extractedBytes * 100) / totalBytes);
+        if (percent == lastPercent) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        if (percent < 100 && now - lastEmitTime < minIntervalMs) {
+            return;
+        }
+        lastPercent = percent;
+        lastEmitTime = now;
+
+        Download download = new Download(percent, extractedBytes, totalBytes);
+        download.setModelName(modelName);
+        download.setPhase(Download.UNZIPPING);
+        EventBus.getInstance().postDownloadStatus(download);
+    }
+}
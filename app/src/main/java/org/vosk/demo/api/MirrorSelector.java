@@ -0,0 +1,227 @@
+package org.vosk.demo.api;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import okhttp3.CacheControl;
+import okhttp3.Call;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+
+/**
+ * Sends every request to the fastest reachable mirror. Requests are built against the primary
+ * base URL and rewritten here, so the Retrofit services do not know about mirrors. The mirrors
+ * are ranked once by fetching the catalog from each of them, a mirror that fails, before the
+ * response or while its body is read, is moved to the end of the ranking and the request is
+ * retried on the next one. Every response is tagged with the {@link Origin} that served it.
+ */
+public class MirrorSelector implements Interceptor {
+
+    private static final String TAG = "MirrorSelector";
+    private static final String PROBE_PATH = "model-list.json";
+    private static final int HTTP_SERVER_ERROR = 500;
+    private static final long PROBE_TIMEOUT_MS = 3000;
+
+    private final HttpUrl primaryUrl;
+    private final OkHttpClient probeClient;
+    private final AtomicBoolean rankingStarted = new AtomicBoolean();
+    // Replaced as a whole, never modified
+    private volatile List<HttpUrl> ranking;
+
+    /**
+     * @param mirrors     base URLs serving the same tree as {@code primaryUrl}, in preference order
+     * @param probeClient client used for the ranking requests, must not go through this selector
+     */
+    public MirrorSelector(String primaryUrl, List<String> mirrors, OkHttpClient probeClient) {
+        this.primaryUrl = HttpUrl.get(primaryUrl);
+        List<HttpUrl> mirrorUrls = new ArrayList<>();
+        for (String mirror : mirrors) {
+            HttpUrl mirrorUrl = HttpUrl.parse(mirror.endsWith("/") ? mirror : mirror + "/");
+            if (mirrorUrl != null && !mirrorUrls.contains(mirrorUrl)) {
+                mirrorUrls.add(mirrorUrl);
+            }
+        }
+        if (mirrorUrls.isEmpty()) {
+            mirrorUrls.add(this.primaryUrl);
+        }
+        this.ranking = Collections.unmodifiableList(mirrorUrls);
+        // A mirror that does not answer quickly is not worth waiting for
+        this.probeClient = probeClient.newBuilder()
+                .callTimeout(PROBE_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * The mirror a request went to. A request that already carries one, e.g. a resume whose
+     * validator only that mirror knows, is sent there and nowhere else.
+     */
+    public static final class Origin {
+        private final HttpUrl url;
+
+        private Origin(HttpUrl url) {
+            this.url = url;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return url.toString();
+        }
+    }
+
+    /**
+     * @return the mirror that served the response, null if it did not go through a selector
+     */
+    public static Origin getOrigin(Response response) {
+        return response.request().tag(Origin.class);
+    }
+
+    @NonNull
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        String path = relativePath(request.url());
+        if (path == null) {
+            return chain.proceed(request);
+        }
+
+        Origin pinned = request.tag(Origin.class);
+        List<HttpUrl> candidates = pinned != null ? Collections.singletonList(pinned.url) : getRanking();
+        IOException lastError = null;
+        for (HttpUrl mirror : candidates) {
+            HttpUrl url = HttpUrl.get(mirror + path);
+            try {
+                Response response = chain.proceed(request.newBuilder()
+                        .url(url)
+                        .tag(Origin.class, new Origin(mirror))
+                        .build());
+                if (response.code() < HTTP_SERVER_ERROR) {
+                    return reportBodyFailures(response, mirror, chain.call());
+                }
+                response.close();
+                lastError = new IOException("HTTP " + response.code() + " from " + url);
+            } catch (IOException e) {
+                lastError = e;
+            }
+            reportFailure(mirror);
+        }
+        throw lastError;
+    }
+
+    /**
+     * A transfer that breaks after its response was handed out, e.g. in the middle of a model
+     * download, counts against the mirror that served it. The next attempt, usually a resumed
+     * one, goes to another mirror. Reads that fail because the call was cancelled don't count.
+     */
+    private Response reportBodyFailures(Response response, HttpUrl mirror, Call call) {
+        ResponseBody body = response.body();
+        if (body == null) {
+            return response;
+        }
+        BufferedSource source = Okio.buffer(new ForwardingSource(body.source()) {
+            @Override
+            public long read(@NonNull Buffer sink, long byteCount) throws IOException {
+                try {
+                    return super.read(sink, byteCount);
+                } catch (IOException e) {
+                    if (!call.isCanceled()) {
+                        reportFailure(mirror);
+                    }
+                    throw e;
+                }
+            }
+        });
+        return response.newBuilder()
+                .body(ResponseBody.create(body.contentType(), body.contentLength(), source))
+                .build();
+    }
+
+    private synchronized void reportFailure(HttpUrl mirror) {
+        List<HttpUrl> mirrors = new ArrayList<>(ranking);
+        if (mirrors.remove(mirror)) {
+            Log.d(TAG, "Failing over from " + mirror);
+            mirrors.add(mirror);
+            ranking = Collections.unmodifiableList(mirrors);
+        }
+    }
+
+    /**
+     * @return the mirror the next request goes to
+     */
+    public Origin getCurrentMirror() {
+        return new Origin(getRanking().get(0));
+    }
+
+    /**
+     * The first caller ranks the mirrors, requests arriving meanwhile use the configured order
+     * instead of waiting for the probes.
+     */
+    private List<HttpUrl> getRanking() {
+        if (ranking.size() > 1 && rankingStarted.compareAndSet(false, true)) {
+            rank();
+        }
+        return ranking;
+    }
+
+    /**
+     * Orders the mirrors by the time it takes to fetch the catalog, which covers both the round
+     * trip and the throughput. Unreachable mirrors go last. The probes run without the lock, only
+     * the finished ranking is swapped in.
+     */
+    private void rank() {
+        Map<HttpUrl, Long> durations = new HashMap<>();
+        for (HttpUrl mirror : ranking) {
+            Request request = new Request.Builder()
+                    .url(HttpUrl.get(mirror + PROBE_PATH))
+                    .cacheControl(CacheControl.FORCE_NETWORK)
+                    .build();
+            long start = System.nanoTime();
+            try (Response response = probeClient.newCall(request).execute()) {
+                ResponseBody body = response.body();
+                if (response.isSuccessful() && body != null) {
+                    body.source().readAll(Okio.blackhole());
+                    durations.put(mirror, System.nanoTime() - start);
+                }
+            } catch (IOException e) {
+                Log.d(TAG, "Mirror " + mirror + " is unreachable", e);
+            }
+        }
+        synchronized (this) {
+            List<HttpUrl> mirrors = new ArrayList<>(ranking);
+            Collections.sort(mirrors, (first, second) -> {
+                Long firstDuration = durations.get(first);
+                Long secondDuration = durations.get(second);
+                if (firstDuration == null || secondDuration == null) {
+                    return firstDuration == null ? (secondDuration == null ? 0 : 1) : -1;
+                }
+                return Long.compare(firstDuration, secondDuration);
+            });
+            ranking = Collections.unmodifiableList(mirrors);
+            Log.d(TAG, "Mirror ranking: " + ranking);
+        }
+    }
+
+    private String relativePath(HttpUrl url) {
+        String urlString = url.toString();
+        String primary = primaryUrl.toString();
+        return urlString.startsWith(primary) ? urlString.substring(primary.length()) : null;
+    }
+}
@@ -0,0 +1,70 @@
+package org.vosk.demo.api;
+
+import android.content.SharedPreferences;
+
+import androidx.annotation.Nullable;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+import org.vosk.demo.ui.model_list.ModelItem;
+import org.vosk.demo.utils.PreferenceConstants;
+
+import java.util.List;
+
+import okhttp3.Headers;
+
+/**
+ * Last known copy of model-list.json with the validators it was served with. The list screen
+ * renders this copy right away and only revalidates it with a conditional request.
+ */
+public class ModelCatalogCache {
+
+    private final SharedPreferences sharedPreferences;
+    private final Gson gson = new Gson();
+
+    public ModelCatalogCache(SharedPreferences sharedPreferences) {
+        this.sharedPreferences = sharedPreferences;
+    }
+
+    @Nullable
+    public List<ModelItem> getModels() {
+        String catalogJson = sharedPreferences.getString(PreferenceConstants.CATALOG_JSON, null);
+        if (catalogJson == null) {
+            return null;
+        }
+        try {
+            return gson.fromJson(catalogJson, new TypeToken<List<ModelItem>>() {
+            }.getType());
+        } catch (JsonParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Validators are only sent when there is a copy to fall back on, a 304 would be useless
+     * otherwise.
+     */
+    @Nullable
+    public String getEtag() {
+        return hasModels() ? sharedPreferences.getString(PreferenceConstants.CATALOG_ETAG, null) : null;
+    }
+
+    @Nullable
+    public String getLastModified() {
+        return hasModels() ? sharedPreferences.getString(PreferenceConstants.CATALOG_LAST_MODIFIED, null) : null;
+    }
+
+    public void store(List<ModelItem> models, Headers headers) {
+        sharedPreferences.edit()
+                .putString(PreferenceConstants.CATALOG_JSON, gson.toJson(models))
+                .putString(PreferenceConstants.CATALOG_ETAG, headers.get("ETag"))
+                .putString(PreferenceConstants.CATALOG_LAST_MODIFIED, headers.get("Last-Modified"))
+                .apply();
+    }
+
+    private boolean hasModels() {
+        return sharedPreferences.contains(PreferenceConstants.CATALOG_JSON);
+    }
+}
@@ -0,0 +1,229 @@
+package org.vosk.demo.api;
+
+import com.google.gson.Gson;
+
+import org.vosk.demo.utils.Checksums;
+import org.vosk.demo.utils.ZipHelper;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-file description of a model release, published next to the archive as
+ * {@code <model>.manifest.json}. Paths are relative to the model directory, the server serves
+ * the same tree unpacked under {@code <model>/}. Installed models keep the manifest of their
+ * tree under the same name next to the model directory.
+ */
+public class ModelManifest {
+
+    public static final String SUFFIX = ".manifest.json";
+
+    private String version;
+    private List<Entry> files = new ArrayList<>();
+
+    public ModelManifest() {
+    }
+
+    public ModelManifest(String version, List<Entry> files) {
+        this.version = version;
+        this.files = files;
+    }
+
+    /**
+     * Describes a freshly extracted model from the sizes and checksums recorded while its files
+     * were written, nothing is read back.
+     */
+    public static ModelManifest create(List<ZipHelper.ExtractedFile> extractedFiles, String version) {
+        List<Entry> entries = new ArrayList<>();
+        for (ZipHelper.ExtractedFile file : extractedFiles) {
+            entries.add(new Entry(file.getPath(), file.getSize(), file.getMd5()));
+        }
+        return new ModelManifest(version, entries);
+    }
+
+    /**
+     * @return null if the model was installed without a manifest
+     */
+    public static ModelManifest load(File modelDir) throws IOException {
+        File file = getFile(modelDir);
+        if (!file.exists()) {
+            return null;
+        }
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            return new Gson().fromJson(reader, ModelManifest.class);
+        }
+    }
+
+    public void save(File modelDir) throws IOException {
+        File file = getFile(modelDir);
+        File tmp = new File(file.getPath() + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8)) {
+            new Gson().toJson(this, writer);
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Can't write " + file);
+        }
+    }
+
+    public static void delete(File modelDir) {
+        getFile(modelDir).delete();
+    }
+
+    public static File getFile(File modelDir) {
+        return new File(modelDir.getPath() + SUFFIX);
+    }
+
+    /**
+     * Cheap check that only looks at file sizes, no data is read. Catches missing and truncated
+     * files, e.g. from an extraction that did not finish.
+     */
+    public boolean matchesSizes(File modelDir) {
+        for (Entry entry : files) {
+            File file = new File(modelDir, entry.getPath());
+            if (file.length() != entry.getSize() || !file.isFile()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Startup check of an installed model, see {@link #matchesSizes(File)}. Models installed
+     * without a manifest are trusted.
+     *
+     * @throws CorruptedModelException if a file is missing or has the wrong size
+     */
+    public static void checkInstalled(File modelDir) throws IOException {
+        ModelManifest manifest = load(modelDir);
+        if (manifest != null && !manifest.matchesSizes(modelDir)) {
+            throw new CorruptedModelException(modelDir);
+        }
+    }
+
+    /**
+     * Deep check of an installed model that hashes every file, meant for a background thread.
+     */
+    public static void verifyInstalled(File modelDir) throws IOException {
+        ModelManifest manifest = load(modelDir);
+        if (manifest != null && !manifest.getChangedEntries(modelDir).isEmpty()) {
+            throw new CorruptedModelException(modelDir);
+        }
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public List<Entry> getFiles() {
+        return files;
+    }
+
+    /**
+     * Entries of this release that differ from the installed release, going by the installed
+     * manifest instead of hashing the files. Files missing or truncated on disk count as changed.
+     */
+    public List<Entry> getChangedEntries(ModelManifest installed, File modelDir) {
+        Map<String, Entry> installedByPath = new HashMap<>();
+        for (Entry entry : installed.files) {
+            installedByPath.put(entry.getPath(), entry);
+        }
+        List<Entry> changed = new ArrayList<>();
+        for (Entry entry : files) {
+            Entry installedEntry = installedByPath.get(entry.getPath());
+            if (installedEntry == null || installedEntry.getSize() != entry.getSize()
+                    || !installedEntry.getMd5().equalsIgnoreCase(entry.getMd5())
+                    || new File(modelDir, entry.getPath()).length() != entry.getSize()) {
+                changed.add(entry);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Entries of this release that are missing or different in the installed model directory.
+     * Sizes are compared first, a file is only hashed when its size matches.
+     */
+    public List<Entry> getChangedEntries(File modelDir) throws IOException {
+        List<Entry> changed = new ArrayList<>();
+        for (Entry entry : files) {
+            File file = new File(modelDir, entry.getPath());
+            if (!file.isFile() || file.length() != entry.getSize()) {
+                changed.add(entry);
+                continue;
+            }
+            MessageDigest digest = Checksums.newMd5();
+            Checksums.update(digest, file, file.length());
+            if (!Checksums.toHex(digest.digest()).equalsIgnoreCase(entry.getMd5())) {
+                changed.add(entry);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * The file of an entry inside {@code modelDir}. Manifests come from the server, paths that
+     * are absolute or climb out of the directory are rejected.
+     */
+    public static File resolve(File modelDir, Entry entry) throws IOException {
+        String path = entry.getPath();
+        if (path == null || path.isEmpty() || path.startsWith("/") || path.startsWith("\\")
+                || new File(path).isAbsolute()) {
+            throw new IOException("Invalid manifest entry " + path);
+        }
+        for (String segment : path.split("[/\\\\]")) {
+            if (segment.equals("..")) {
+                throw new IOException("Invalid manifest entry " + path);
+            }
+        }
+        File file = new File(modelDir, path);
+        if (!file.getCanonicalPath().startsWith(modelDir.getCanonicalPath() + File.separator)) {
+            throw new IOException("Manifest entry " + path + " is outside of " + modelDir);
+        }
+        return file;
+    }
+
+    public static class CorruptedModelException extends IOException {
+        public CorruptedModelException(File modelDir) {
+            super(modelDir + " does not match its manifest");
+        }
+    }
+
+    public static class Entry {
+        private String path;
+        private long size;
+        private String md5;
+
+        public Entry() {
+        }
+
+        public Entry(String path, long size, String md5) {
+            this.path = path;
+            this.size = size;
+            this.md5 = md5;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public String getMd5() {
+            return md5;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package org.vosk.demo.api;
+
+import org.vosk.demo.utils.FileAllocation;
+import org.vosk.demo.utils.FileChannelSink;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.Completable;
+import io.reactivex.exceptions.CompositeException;
+import io.reactivex.schedulers.Schedulers;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import retrofit2.Response;
+
+/**
+ * Downloads one archive over several connections at once. The file is split in byte ranges that
+ * are fetched in parallel and written at their own offset, progress of every range is kept in the
+ * {@link DownloadJournal} so an interrupted download continues where each range stopped.
+ */
+public class SegmentedDownloader {
+
+    public static final int DEFAULT_SEGMENT_COUNT = 4;
+    private static final long MIN_SEGMENT_SIZE = 8 * 1024 * 1024;
+    private static final long READ_SIZE = 64 * 1024;
+    private static final int HTTP_PARTIAL_CONTENT = 206;
+    /**
+     * With {@link FileChannelSink#SYNC_ON_CLOSE} a range would only reach the journal once it is
+     * complete, the ranges are synced at this interval anyway.
+     */
+    private static final long CHECKPOINT_BYTES = FileChannelSink.DEFAULT_SYNC_INTERVAL_BYTES;
+
+    private final VoskService service;
+    private final String url;
+    private final File target;
+    private final DownloadJournal journal;
+    private final DownloadProgressListener listener;
+    private final DownloadStats stats;
+    private final int segmentCount;
+    private final long syncIntervalBytes;
+    private final AtomicLong bytesOnDisk = new AtomicLong();
+    // Set when one range fails, the others stop at their next read
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    private final AtomicBoolean archiveChanged = new AtomicBoolean();
+
+    /**
+     * @param listener receives the combined progress of all ranges, the range requests themselves
+     *                 are sent without a progress tag
+     * @param stats             telemetry record every range request is tagged with
+     * @param syncIntervalBytes see {@link FileChannelSink}, {@link #CHECKPOINT_BYTES} when only
+     *                          syncing on close
+     */
+    public SegmentedDownloader(VoskService service, String url, File target, DownloadJournal journal,
+                               DownloadProgressListener listener, DownloadStats stats, int segmentCount,
+                               long syncIntervalBytes) {
+        this.service = service;
+        this.url = url;
+        this.target = target;
+        this.journal = journal;
+        this.listener = listener;
+        this.stats = stats;
+        this.segmentCount = segmentCount;
+        this.syncIntervalBytes = syncIntervalBytes > FileChannelSink.SYNC_ON_CLOSE ? syncIntervalBytes : CHECKPOINT_BYTES;
+    }
+
+    /**
+     * @return false if the archive can't be fetched in ranges and has to be downloaded as a
+     * single stream instead. Nothing is written in that case.
+     */
+    public boolean download() throws IOException {
+        // All ranges of one attempt go to the same mirror, their validator only has to hold there
+        MirrorSelector.Origin origin = VoskClient.getMirrorSelector().getCurrentMirror();
+        if (journal.getResumeOffset(target, origin) > 0) {
+            // An interrupted single stream download is resumed the way it was started
+            return false;
+        }
+        if (!journal.hasSegments() || !target.exists() || journal.getValidator(origin) == null) {
+            if (!prepareSegments(origin)) {
+                return false;
+            }
+        }
+
+        bytesOnDisk.set(journal.getSegmentedBytes());
+        cancelled.set(false);
+        archiveChanged.set(false);
+        List<Completable> transfers = new ArrayList<>();
+        Throwable failure = null;
+        try (RandomAccessFile file = new RandomAccessFile(target, "rw");
+             FileChannel channel = file.getChannel()) {
+            FileAllocation.preallocate(file, journal.getContentLength());
+            for (DownloadJournal.Segment segment : journal.getSegments()) {
+                if (!segment.isComplete()) {
+                    transfers.add(Completable.fromAction(() -> fetchSegment(channel, segment, origin))
+                            .doOnError(error -> cancelled.set(true))
+                            .subscribeOn(Schedulers.io()));
+                }
+            }
+            // Waits for every range to stop, nothing may write to the file once this returns
+            failure = Completable.mergeDelayError(transfers).blockingGet();
+        }
+        if (archiveChanged.get()) {
+            journal.delete();
+            target.delete();
+        }
+        if (failure != null) {
+            throw toIOException(failure);
+        }
+
+        journal.markComplete();
+        reportProgress(journal.getContentLength(), true);
+        return true;
+    }
+
+    private boolean prepareSegments(MirrorSelector.Origin origin) throws IOException {
+        Response<ResponseBody> probe = service.downloadFile(url, "bytes=0-0", null, null, stats, origin).blockingFirst();
+        ResponseBody body = probe.body();
+        if (body != null) {
+            body.close();
+        }
+        // Without a validator ranges of two releases of the archive could end up in one file
+        if (probe.code() != HTTP_PARTIAL_CONTENT || DownloadJournal.getValidator(probe.headers()) == null) {
+            return false;
+        }
+        long contentLength = DownloadJournal.getCompleteLength(probe.headers());
+        if (contentLength < 2 * MIN_SEGMENT_SIZE) {
+            return false;
+        }
+
+        int count = (int) Math.max(1, Math.min(segmentCount, contentLength / MIN_SEGMENT_SIZE));
+        long segmentSize = contentLength / count;
+        List<DownloadJournal.Segment> segments = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            long start = i * segmentSize;
+            long end = i == count - 1 ? contentLength - 1 : start + segmentSize - 1;
+            segments.add(new DownloadJournal.Segment(start, end));
+        }
+
+        if (target.exists() && !target.delete()) {
+            throw new IOException("Can't remove stale archive " + target);
+        }
+        journal.startSegmented(origin, probe.headers(), contentLength, segments);
+        return true;
+    }
+
+    private void fetchSegment(FileChannel channel, DownloadJournal.Segment segment, MirrorSelector.Origin origin) throws IOException {
+        Response<ResponseBody> response = service.downloadFile(url, "bytes=" + segment.getPosition() + "-" + segment.getEnd(),
+                journal.getValidator(origin), null, stats, origin).blockingFirst();
+        ResponseBody body = response.body();
+        if (response.code() != HTTP_PARTIAL_CONTENT || body == null || !journal.matchesLength(response.headers())) {
+            if (body != null) {
+                body.close();
+            }
+            if (response.isSuccessful()) {
+                // If-Range or the length did not match, the archive changed since we started
+                archiveChanged.set(true);
+            }
+            throw new IOException("Unexpected response " + response.code() + " for range of " + url);
+        }
+
+        FileChannelSink sink = new FileChannelSink(channel, segment.getPosition(), syncIntervalBytes, null);
+        try (BufferedSource source = body.source()) {
+            Buffer buffer = new Buffer();
+            long count;
+            while ((count = source.read(buffer, READ_SIZE)) != -1) {
+                if (cancelled.get()) {
+                    throw new IOException("Range " + segment.getStart() + "-" + segment.getEnd() + " cancelled");
+                }
+                sink.write(buffer, count);
+                // The journal must not point past the bytes that survive a crash
+                segment.setPosition(sink.getSyncedPosition());
+                reportProgress(bytesOnDisk.addAndGet(count), false);
+                journal.saveProgress();
+            }
+            sink.close();
+            segment.setPosition(sink.getPosition());
+        }
+        if (!segment.isComplete()) {
+            throw new IOException("Connection closed before the end of range " + segment.getStart() + "-" + segment.getEnd());
+        }
+    }
+
+    // The listener is written for a single stream, don't let the ranges call it concurrently
+    private synchronized void reportProgress(long bytes, boolean done) {
+        if (listener != null) {
+            listener.update(bytes, journal.getContentLength(), done);
+        }
+    }
+
+    private static IOException toIOException(Throwable failure) {
+        if (failure instanceof CompositeException) {
+            failure = ((CompositeException) failure).getExceptions().get(0);
+        }
+        if (failure instanceof IOException) {
+            return (IOException) failure;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        return new IOException(failure);
+    }
+}
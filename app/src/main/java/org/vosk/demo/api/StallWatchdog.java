@@ -0,0 +1,77 @@
+package org.vosk.demo.api;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Interceptor;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Okio;
+
+/**
+ * Aborts a transfer whose body stops flowing. Every call gets a read timeout, so a read that
+ * waits longer than that for data fails with a {@link java.net.SocketTimeoutException} and the
+ * download is resumed instead of hanging. The timeout follows the measured throughput of the
+ * link: it is the time a healthy transfer needs for a few socket reads, within fixed bounds.
+ */
+public class StallWatchdog implements Interceptor {
+
+    public static final long MIN_READ_TIMEOUT_MS = 10_000;
+    public static final long MAX_READ_TIMEOUT_MS = 60_000;
+    // A read is allowed to take this many times longer than at the measured rate
+    private static final int SLOWDOWN_FACTOR = 8;
+    private static final long READ_SIZE = 64 * 1024;
+    private static final double SMOOTHING = 0.2;
+    private static final long MIN_SAMPLE_MS = 500;
+
+    private double bytesPerSecond;
+
+    @NonNull
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Response response = chain.withReadTimeout((int) getReadTimeoutMs(), TimeUnit.MILLISECONDS)
+                .proceed(chain.request());
+        ResponseBody body = response.body();
+        if (body == null) {
+            return response;
+        }
+        ResponseBody measuredBody = ResponseBody.create(body.contentType(), body.contentLength(),
+                Okio.buffer(new ForwardingSource(body.source()) {
+                    private long sampleStart = System.currentTimeMillis();
+                    private long sampleBytes;
+
+                    @Override
+                    public long read(@NonNull Buffer sink, long byteCount) throws IOException {
+                        long bytesRead = super.read(sink, byteCount);
+                        if (bytesRead > 0) {
+                            sampleBytes += bytesRead;
+                            long now = System.currentTimeMillis();
+                            if (now - sampleStart >= MIN_SAMPLE_MS) {
+                                onSample(sampleBytes, now - sampleStart);
+                                sampleStart = now;
+                                sampleBytes = 0;
+                            }
+                        }
+                        return bytesRead;
+                    }
+                }));
+        return response.newBuilder().body(measuredBody).build();
+    }
+
+    public synchronized long getReadTimeoutMs() {
+        if (bytesPerSecond <= 0) {
+            return MAX_READ_TIMEOUT_MS;
+        }
+        long expectedMs = (long) (READ_SIZE * 1000 / bytesPerSecond) * SLOWDOWN_FACTOR;
+        return Math.max(MIN_READ_TIMEOUT_MS, Math.min(MAX_READ_TIMEOUT_MS, expectedMs));
+    }
+
+    private synchronized void onSample(long bytes, long elapsedMs) {
+        double sample = bytes * 1000.0 / elapsedMs;
+        bytesPerSecond = bytesPerSecond <= 0 ? sample : bytesPerSecond + SMOOTHING * (sample - bytesPerSecond);
+    }
+}
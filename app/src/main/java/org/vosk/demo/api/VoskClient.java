@@ -1,40 +1,113 @@
 package org.vosk.demo.api;
 
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import org.vosk.demo.utils.PreferenceConstants;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
+import okhttp3.Cache;
 import okhttp3.OkHttpClient;
 import retrofit2.Retrofit;
 import retrofit2.adapter.rxjava2.RxJava2CallAdapterFactory;
 import retrofit2.converter.gson.GsonConverterFactory;
 
+/**
+ * Process wide HTTP layer. Every profile is derived from one base client with
+ * {@link OkHttpClient#newBuilder()}, so they all share its dispatcher, connection pool and TLS
+ * sessions. Progress listeners are passed per request as a tag, not baked into a client.
+ */
 public class VoskClient {
 
     private static final String TAG = "DownloadAPI";
     private static final int DEFAULT_TIMEOUT = 15;
-    public static Retrofit retrofit;
+    private static final String HTTP_CACHE_DIR = "http_cache";
+    private static final long HTTP_CACHE_SIZE = 10 * 1024 * 1024;
     private static final String BASE_URL = "https://alphacephei.com/vosk/models/";
 
-    public static VoskService getClient(DownloadProgressListener listener, ServiceType serviceType) {
+    private static final BandwidthLimiter bandwidthLimiter = new BandwidthLimiter();
+    private static final StallWatchdog stallWatchdog = new StallWatchdog();
+    private static OkHttpClient baseClient;
+    private static MirrorSelector mirrorSelector;
+    private static final Map<ServiceType, VoskService> services = new EnumMap<>(ServiceType.class);
 
-        DownloadProgressInterceptor interceptor = new DownloadProgressInterceptor(listener);
+    public static synchronized VoskService getClient(Context context, ServiceType serviceType) {
+        VoskService service = services.get(serviceType);
+        if (service == null) {
+            Retrofit retrofit = new Retrofit.Builder()
+                    .baseUrl(BASE_URL)
+                    .addConverterFactory(GsonConverterFactory.create())
+                    .addCallAdapterFactory(RxJava2CallAdapterFactory.create())
+                    .client(getHttpClient(context, serviceType))
+                    .build();
+            service = retrofit.create(VoskService.class);
+            services.put(serviceType, service);
+        }
+        return service;
+    }
 
-        OkHttpClient client = serviceType == ServiceType.DOWNLOAD_MODEL ? new OkHttpClient.Builder()
-                .retryOnConnectionFailure(true)
-                .addNetworkInterceptor(interceptor)
-                .connectTimeout(DEFAULT_TIMEOUT, TimeUnit.SECONDS)
-                .build()
-                : new OkHttpClient.Builder()
-                .retryOnConnectionFailure(true)
-                .connectTimeout(DEFAULT_TIMEOUT, TimeUnit.SECONDS)
-                .build();
+    private static OkHttpClient getHttpClient(Context context, ServiceType serviceType) {
+        if (baseClient == null) {
+            File cacheDir = new File(context.getApplicationContext().getCacheDir(), HTTP_CACHE_DIR);
+            baseClient = new OkHttpClient.Builder()
+                    .retryOnConnectionFailure(true)
+                    .connectTimeout(DEFAULT_TIMEOUT, TimeUnit.SECONDS)
+                    .readTimeout(DEFAULT_TIMEOUT, TimeUnit.SECONDS)
+                    .cache(new Cache(cacheDir, HTTP_CACHE_SIZE))
+                    .build();
+            mirrorSelector = new MirrorSelector(BASE_URL, getMirrors(context), baseClient);
+        }
 
-        Retrofit retrofit = new Retrofit.Builder()
-                .baseUrl(BASE_URL)
-                .addConverterFactory(GsonConverterFactory.create())
-                .addCallAdapterFactory(RxJava2CallAdapterFactory.create())
-                .client(client)
+        if (serviceType == ServiceType.DOWNLOAD_MODEL) {
+            // Model archives are far bigger than the cache, keep them out of it
+            return baseClient.newBuilder()
+                    .cache(null)
+                    .eventListenerFactory(DownloadEventListener.FACTORY)
+                    .addInterceptor(mirrorSelector)
+                    .addInterceptor(stallWatchdog)
+                    .addNetworkInterceptor(new DownloadProgressInterceptor())
+                    .addNetworkInterceptor(bandwidthLimiter)
+                    .build();
+        }
+        return baseClient.newBuilder()
+                .addInterceptor(mirrorSelector)
                 .build();
-        return retrofit.create(VoskService.class);
+    }
+
+    /**
+     * Mirrors configured in the preferences, comma separated, come before the primary server.
+     */
+    private static List<String> getMirrors(Context context) {
+        SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context.getApplicationContext());
+        List<String> mirrors = new ArrayList<>();
+        for (String mirror : sharedPreferences.getString(PreferenceConstants.MODEL_MIRRORS, "").split(",")) {
+            if (!mirror.trim().isEmpty()) {
+                mirrors.add(mirror.trim());
+            }
+        }
+        mirrors.add(BASE_URL);
+        return mirrors;
+    }
+
+    /**
+     * Budget shared by every model download, whatever the number of parallel transfers.
+     */
+    public static BandwidthLimiter getBandwidthLimiter() {
+        return bandwidthLimiter;
+    }
+
+    /**
+     * Only valid once a client was created.
+     */
+    public static MirrorSelector getMirrorSelector() {
+        return mirrorSelector;
     }
 
     public enum ServiceType {
@@ -6,15 +6,23 @@ import java.util.List;
 
 import io.reactivex.Observable;
 import okhttp3.ResponseBody;
+import retrofit2.Response;
 import retrofit2.http.GET;
+import retrofit2.http.Header;
 import retrofit2.http.Streaming;
+import retrofit2.http.Tag;
 import retrofit2.http.Url;
 
 public interface VoskService {
     @Streaming
     @GET
-    Observable<ResponseBody> downloadFile(@Url String url);
+    Observable<Response<ResponseBody>> downloadFile(@Url String url, @Header("Range") String range, @Header("If-Range") String ifRange,
+                                                  @Tag DownloadProgressListener listener, @Tag DownloadStats stats,
+                                                  @Tag MirrorSelector.Origin origin);
+
+    @GET
+    Observable<Response<ModelManifest>> getManifest(@Url String url);
 
     @GET("model-list.json")
-    Observable<List<ModelItem>> getModelList();
+    Observable<Response<List<ModelItem>>> getModelList(@Header("If-None-Match") String etag, @Header("If-Modified-Since") String lastModified);
 }
\ No newline at end of file
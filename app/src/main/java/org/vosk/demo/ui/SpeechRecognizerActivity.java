@@ -15,17 +15,18 @@
 // along with this program.  If not, see <https://www.gnu.org/licenses/>.
 package org.vosk.demo.ui;
 
-import static org.vosk.demo.DownloadModelService.MODEL_FILE_ROOT_PATH;
-
 import android.Manifest;
 import android.app.Activity;
 import android.app.PendingIntent;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.content.ServiceConnection;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.IBinder;
 import android.os.Message;
 import android.os.Parcelable;
 import android.preference.PreferenceManager;
@@ -45,23 +46,23 @@ import org.vosk.LogLevel;
 import org.vosk.Model;
 import org.vosk.Recognizer;
 import org.vosk.android.RecognitionListener;
-import org.vosk.android.SpeechService;
 import org.vosk.android.StorageService;
+import org.vosk.demo.PreRollRecorder;
 import org.vosk.demo.R;
+import org.vosk.demo.RecognitionEngineService;
+import org.vosk.demo.RecognizerPool;
+import org.vosk.demo.api.ModelManifest;
 import org.vosk.demo.utils.PreferenceConstants;
 
-import java.io.File;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 
 import io.reactivex.Single;
 import io.reactivex.android.schedulers.AndroidSchedulers;
 import io.reactivex.disposables.CompositeDisposable;
-import io.reactivex.schedulers.Schedulers;
 
 public class SpeechRecognizerActivity extends AppCompatActivity {
     protected static final String TAG = SpeechRecognizerActivity.class.getSimpleName();
@@ -84,9 +85,24 @@ public class SpeechRecognizerActivity extends AppCompatActivity {
 
     //Vosk
     private Model model;
-    private SpeechService speechService;
+    private Recognizer recognizer;
+    private Single<Recognizer> pendingRecognizer;
+    private PreRollRecorder recorder;
+    private RecognitionEngineService engine;
+    private boolean engineBound;
     RecognitionListener listener;
 
+    private final ServiceConnection engineConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            onEngineConnected(((RecognitionEngineService.LocalBinder) binder).getService());
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+        }
+    };
+
     protected static class SimpleMessageHandler extends Handler {
         private final WeakReference<SpeechRecognizerActivity> mRef;
 
@@ -137,12 +153,6 @@ public class SpeechRecognizerActivity extends AppCompatActivity {
         LibVosk.setLogLevel(LogLevel.INFO);
         sharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
 
-        if (!hasPermissions(this, PERMISSIONS)) {
-            ActivityCompat.requestPermissions(this, PERMISSIONS, PERMISSION_ALL);
-        } else {
-            initModel();
-        }
-
         editText = findViewById(R.id.text);
 
         listener = new RecognitionListener() {
@@ -173,11 +183,12 @@ public class SpeechRecognizerActivity extends AppCompatActivity {
 
             @Override
             public void onFinalResult(String s) {
-                speechService.stop();
+                recorder.stop();
             }
 
             @Override
             public void onError(Exception e) {
+                cancelCapture();
                 showError();
             }
 
@@ -186,34 +197,81 @@ public class SpeechRecognizerActivity extends AppCompatActivity {
 
             }
         };
+
+        if (!hasPermissions(this, PERMISSIONS)) {
+            ActivityCompat.requestPermissions(this, PERMISSIONS, PERMISSION_ALL);
+        } else {
+            startCapture();
+            initModel();
+        }
+    }
+
+    /**
+     * Records from the moment the activity opens, what is said while the model loads is
+     * recognized once it is ready.
+     */
+    private void startCapture() {
+        try {
+            recorder = new PreRollRecorder(RecognitionEngineService.SAMPLE_RATE);
+            recorder.start();
+        } catch (IOException e) {
+            showError(e.getMessage());
+        }
     }
 
     private void initModel() {
         if (sharedPreferences.contains(PreferenceConstants.ACTIVE_MODEL)) {
-            File outputFile = new File(MODEL_FILE_ROOT_PATH, sharedPreferences.getString(PreferenceConstants.ACTIVE_MODEL, "") + "/" + sharedPreferences.getString(PreferenceConstants.ACTIVE_MODEL, ""));
-
-            compositeDisposable.add(Single.fromCallable(() -> new Model(outputFile.getAbsolutePath()))
-                    .doOnSuccess(model1 -> this.model = model1)
-                    .delay(1, TimeUnit.MILLISECONDS)
-                    .subscribeOn(Schedulers.io())
-                    .observeOn(AndroidSchedulers.mainThread())
-                    .subscribe(model1 -> startSpeech(), Throwable::printStackTrace));
+            RecognitionEngineService.bind(this, engineConnection);
+            engineBound = true;
         } else
             StorageService.unpack(this, "model-en-us", "model",
                     (model) -> {
                         this.model = model;
-                        startSpeech();
+                        try {
+                            startSpeech(RecognizerPool.getInstance().acquire(model, RecognitionEngineService.SAMPLE_RATE, null));
+                        } catch (IOException e) {
+                            cancelCapture();
+                            e.printStackTrace();
+                        }
                     },
-                    Throwable::printStackTrace);
+                    error -> {
+                        cancelCapture();
+                        error.printStackTrace();
+                    });
     }
 
-    private void startSpeech() {
-        try {
-            Recognizer rec = new Recognizer(model, 16000.0f);
-            speechService = new SpeechService(rec, 16000.0f);
-            speechService.startListening(listener);
-        } catch (IOException e) {
-            e.printStackTrace();
+    private void onEngineConnected(RecognitionEngineService engine) {
+        if (this.engine != null) {
+            return;
+        }
+        if (!engine.admitSession()) {
+            cancelCapture();
+            showError(getString(R.string.recognizer_busy));
+            return;
+        }
+        this.engine = engine;
+        // The engine has a recognizer ready unless the model is still loading
+        pendingRecognizer = engine.takeRecognizer();
+        compositeDisposable.add(pendingRecognizer
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(this::startSpeech, error -> {
+                    cancelCapture();
+                    if (error instanceof ModelManifest.CorruptedModelException)
+                        showError(getString(R.string.model_corrupted_error));
+                    error.printStackTrace();
+                }));
+    }
+
+    private void cancelCapture() {
+        if (recorder != null) {
+            recorder.cancel();
+        }
+    }
+
+    private void startSpeech(Recognizer rec) {
+        recognizer = rec;
+        if (recorder != null) {
+            recorder.startListening(rec, listener);
         }
     }
 
@@ -229,11 +287,27 @@ public class SpeechRecognizerActivity extends AppCompatActivity {
     protected void onDestroy() {
         super.onDestroy();
         Log.i(TAG, "onDestroy");
-        if (speechService != null) {
-            speechService.stop();
-            speechService.shutdown();
+        if (recorder != null) {
+            recorder.shutdown();
         }
         compositeDisposable.clear();
+        if (recognizer != null) {
+            RecognizerPool.getInstance().release(recognizer);
+            recognizer = null;
+        } else if (pendingRecognizer != null) {
+            // Still being built, give it back once it is there
+            pendingRecognizer.subscribe(RecognizerPool.getInstance()::release, error -> {
+            });
+        }
+        pendingRecognizer = null;
+        if (engine != null) {
+            engine.endSession();
+            engine = null;
+        }
+        if (engineBound) {
+            unbindService(engineConnection);
+            engineBound = false;
+        }
     }
 
     public static boolean hasPermissions(Context context, String... permissions) {
@@ -256,6 +330,10 @@ public class SpeechRecognizerActivity extends AppCompatActivity {
                 finish();
             }
         }
+        if (!isFinishing() && recorder == null && hasPermissions(this, PERMISSIONS)) {
+            startCapture();
+            initModel();
+        }
     }
 
     private void returnResults(List<String> results) {
@@ -21,7 +21,9 @@ import static org.vosk.demo.utils.Tools.isServiceRunning;
 
 import android.Manifest;
 import android.app.Activity;
+import android.content.ComponentName;
 import android.content.Intent;
+import android.content.ServiceConnection;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.net.NetworkInfo;
@@ -29,6 +31,7 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
+import android.os.IBinder;
 import android.preference.PreferenceManager;
 import android.provider.Settings;
 import android.text.method.ScrollingMovementMethod;
@@ -53,17 +56,26 @@ import org.vosk.android.SpeechService;
 import org.vosk.android.SpeechStreamService;
 import org.vosk.android.StorageService;
 import org.vosk.demo.DownloadModelService;
+import org.vosk.demo.DownloadQueue;
+import org.vosk.demo.ModelRegistry;
+import org.vosk.demo.ModelStorageManager;
 import org.vosk.demo.R;
+import org.vosk.demo.RecognitionEngineService;
+import org.vosk.demo.RecognizerPool;
+import org.vosk.demo.api.ModelManifest;
 import org.vosk.demo.ui.model_list.ModelListActivity;
 import org.vosk.demo.utils.Error;
 import org.vosk.demo.utils.EventBus;
 import org.vosk.demo.utils.PreferenceConstants;
+import org.vosk.demo.utils.ZipHelper;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
+import io.reactivex.Completable;
 import io.reactivex.Single;
 import io.reactivex.android.schedulers.AndroidSchedulers;
 import io.reactivex.disposables.CompositeDisposable;
@@ -80,14 +92,29 @@ public class VoskActivity extends Activity implements
 
     public static final int PERMISSIONS_REQUEST_RECORD_AUDIO = 1;
     public static final int PERMISSIONS_REQUEST_ALL_FILES_ACCESS = 2;
+    private static final String DIGITS_GRAMMAR = "[\"one zero zero zero one\", " +
+            "\"oh zero one two three four five six seven eight nine\", \"[unk]\"]";
 
     private CompositeDisposable compositeDisposable;
     private SharedPreferences sharedPreferences;
 
     private Model model;
+    private ModelRegistry.Lease modelLease;
     private SpeechService speechService;
     private SpeechStreamService speechStreamService;
+    private Recognizer micRecognizer;
+    private Recognizer fileRecognizer;
     private TextView resultView;
+    private boolean engineBound;
+    private final ServiceConnection engineConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+        }
+    };
 
     @Override
     public void onCreate(Bundle state) {
@@ -146,13 +173,20 @@ public class VoskActivity extends Activity implements
             case WRITE_STORAGE:
                 Toast.makeText(this, getString(R.string.write_storage_error), Toast.LENGTH_LONG).show();
                 break;
+            case CHECKSUM:
+                Toast.makeText(this, getString(R.string.checksum_error), Toast.LENGTH_LONG).show();
+                break;
+            case INSUFFICIENT_STORAGE:
+                Toast.makeText(this, getString(R.string.insufficient_storage_error), Toast.LENGTH_LONG).show();
+                break;
         }
     }
 
     private void checkIfIsDownloading() {
-        String modelDownloadingName = sharedPreferences.getString(PreferenceConstants.DOWNLOADING_FILE, "");
-        if (!modelDownloadingName.equals("") && !isServiceRunning(this)) {
-            ModelListActivity.progress = RESTARTING;
+        DownloadQueue downloadQueue = new DownloadQueue(sharedPreferences);
+        if (!downloadQueue.isEmpty() && !isServiceRunning(this)) {
+            for (DownloadQueue.Item item : downloadQueue.getItems())
+                ModelListActivity.setProgress(item.getModelName(), RESTARTING);
             startDownloadModelService();
         }
     }
@@ -175,12 +209,42 @@ public class VoskActivity extends Activity implements
         if (sharedPreferences.contains(PreferenceConstants.ACTIVE_MODEL)) {
             File outputFile = new File(MODEL_FILE_ROOT_PATH, sharedPreferences.getString(PreferenceConstants.ACTIVE_MODEL, "") + "/" + sharedPreferences.getString(PreferenceConstants.ACTIVE_MODEL, ""));
 
-            compositeDisposable.add(Single.fromCallable(() -> new Model(outputFile.getAbsolutePath()))
-                    .doOnSuccess(model1 -> this.model = model1)
+            File modelDir = outputFile.getParentFile();
+            AtomicReference<ModelRegistry.Lease> arriving = new AtomicReference<>();
+            compositeDisposable.add(Single.fromCallable(() -> {
+                        ZipHelper.recoverPublish(modelDir);
+                        // Fails in milliseconds where the native loader would take seconds
+                        ModelManifest.checkInstalled(modelDir);
+                        return outputFile.getAbsolutePath();
+                    })
+                    .flatMap(ModelRegistry.getInstance(this)::acquire)
+                    .doOnSuccess(lease -> {
+                        arriving.set(lease);
+                        new ModelStorageManager(sharedPreferences).markUsed(modelDir.getName());
+                    })
                     .delay(1, TimeUnit.MILLISECONDS)
                     .subscribeOn(Schedulers.io())
                     .observeOn(AndroidSchedulers.mainThread())
-                    .subscribe(model1 -> setUiState(STATE_READY), Throwable::printStackTrace));
+                    // Stopped or failed before the lease got here
+                    .doOnDispose(() -> releaseUnclaimed(arriving.get()))
+                    .doOnError(error -> releaseUnclaimed(arriving.get()))
+                    .subscribe(lease -> {
+                        if (!lease.claim())
+                            return;
+                        releaseModel();
+                        this.modelLease = lease;
+                        this.model = lease.getModel();
+                        setUiState(STATE_READY);
+                        // Shares the model just loaded, voice input then starts listening right away
+                        if (!engineBound)
+                            engineBound = RecognitionEngineService.bind(this, engineConnection);
+                        if (sharedPreferences.getBoolean(PreferenceConstants.DEEP_MODEL_VERIFICATION, false))
+                            verifyModel(modelDir);
+                    }, error -> {
+                        if (error instanceof ModelManifest.CorruptedModelException)
+                            setErrorState(getString(R.string.model_corrupted_error));
+                        error.printStackTrace();
+                    }));
         } else
             StorageService.unpack(this, "model-en-us", "model",
                     (model) -> {
@@ -191,6 +255,31 @@ public class VoskActivity extends Activity implements
     }
 
 
+    private static void releaseUnclaimed(ModelRegistry.Lease lease) {
+        if (lease != null)
+            lease.releaseUnclaimed();
+    }
+
+    private void releaseModel() {
+        if (modelLease != null) {
+            modelLease.release();
+            modelLease = null;
+            model = null;
+        }
+    }
+
+    private void verifyModel(File modelDir) {
+        compositeDisposable.add(Completable.fromAction(() -> ModelManifest.verifyInstalled(modelDir))
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(() -> {
+                }, error -> {
+                    if (error instanceof ModelManifest.CorruptedModelException)
+                        Toast.makeText(this, R.string.model_corrupted_error, Toast.LENGTH_LONG).show();
+                    error.printStackTrace();
+                }));
+    }
+
     @Override
     public void onRequestPermissionsResult(int requestCode,
                                            @NonNull String[] permissions, @NonNull int[] grantResults) {
@@ -218,16 +307,36 @@ public class VoskActivity extends Activity implements
     @Override
     public void onDestroy() {
         super.onDestroy();
+        stopRecognition();
+        compositeDisposable.clear();
+    }
 
+    private void stopRecognition() {
         if (speechService != null) {
             speechService.stop();
             speechService.shutdown();
+            speechService = null;
         }
 
         if (speechStreamService != null) {
             speechStreamService.stop();
+            speechStreamService = null;
         }
-        compositeDisposable.clear();
+        micRecognizer = releaseRecognizer(micRecognizer);
+        fileRecognizer = releaseRecognizer(fileRecognizer);
+    }
+
+    /**
+     * Gives a recognizer back to the pool once its service stopped feeding it.
+     *
+     * @return null, to clear the field holding it
+     */
+    private static Recognizer releaseRecognizer(Recognizer recognizer) {
+        if (recognizer != null) {
+            RecognizerPool.getInstance().release(recognizer);
+            RecognizerPool.getInstance().logStats();
+        }
+        return null;
     }
 
     @Override
@@ -241,6 +350,7 @@ public class VoskActivity extends Activity implements
         setUiState(STATE_DONE);
         if (speechStreamService != null) {
             speechStreamService = null;
+            fileRecognizer = releaseRecognizer(fileRecognizer);
         }
     }
 
@@ -313,11 +423,12 @@ public class VoskActivity extends Activity implements
             setUiState(STATE_DONE);
             speechStreamService.stop();
             speechStreamService = null;
+            fileRecognizer = releaseRecognizer(fileRecognizer);
         } else {
             setUiState(STATE_FILE);
             try {
-                Recognizer rec = new Recognizer(model, 16000.f, "[\"one zero zero zero one\", " +
-                        "\"oh zero one two three four five six seven eight nine\", \"[unk]\"]");
+                Recognizer rec = RecognizerPool.getInstance().acquire(model, 16000.f, DIGITS_GRAMMAR);
+                fileRecognizer = rec;
 
                 InputStream ais = getAssets().open(
                         "10001-90210-01803.wav");
@@ -327,6 +438,7 @@ public class VoskActivity extends Activity implements
                 speechStreamService.start(this);
             } catch (IOException e) {
                 setErrorState(e.getMessage());
+                fileRecognizer = releaseRecognizer(fileRecognizer);
             }
         }
     }
@@ -353,6 +465,15 @@ public class VoskActivity extends Activity implements
     protected void onStop() {
         super.onStop();
         compositeDisposable.clear();
+        if (engineBound) {
+            // The engine stays warm for its keep-alive time
+            unbindService(engineConnection);
+            engineBound = false;
+        }
+        // Nothing may feed a recognizer of the model once the lease is gone
+        stopRecognition();
+        // Kept loaded by the registry for a while, so coming back does not reload it
+        releaseModel();
     }
 
     private void recognizeMicrophone() {
@@ -360,14 +481,17 @@ public class VoskActivity extends Activity implements
             setUiState(STATE_DONE);
             speechService.stop();
             speechService = null;
+            micRecognizer = releaseRecognizer(micRecognizer);
         } else {
             setUiState(STATE_MIC);
             try {
-                Recognizer rec = new Recognizer(model, 16000.0f);
+                Recognizer rec = RecognizerPool.getInstance().acquire(model, 16000.0f, null);
+                micRecognizer = rec;
                 speechService = new SpeechService(rec, 16000.0f);
                 speechService.startListening(this);
             } catch (IOException e) {
                 setErrorState(e.getMessage());
+                micRecognizer = releaseRecognizer(micRecognizer);
             }
         }
     }
@@ -3,6 +3,8 @@ package org.vosk.demo.ui.model_list;
 import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.DiffUtil;
 
+import java.util.Objects;
+
 public class DiffCallback extends DiffUtil.ItemCallback<ModelItem> {
 
     @Override
@@ -12,6 +14,10 @@ public class DiffCallback extends DiffUtil.ItemCallback<ModelItem> {
 
     @Override
     public boolean areContentsTheSame(@NonNull ModelItem oldItem, @NonNull ModelItem newItem) {
-        return oldItem.getName().equals(newItem.getName());
+        return oldItem.getName().equals(newItem.getName())
+                && Objects.equals(oldItem.getVersion(), newItem.getVersion())
+                && Objects.equals(oldItem.getMd5(), newItem.getMd5())
+                && oldItem.getSize() == newItem.getSize()
+                && oldItem.getObsolete() == newItem.getObsolete();
     }
 }
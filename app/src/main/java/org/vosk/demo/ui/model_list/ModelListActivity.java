@@ -3,6 +3,7 @@ package org.vosk.demo.ui.model_list;
 import static org.vosk.demo.api.Download.CLEAR;
 import static org.vosk.demo.api.Download.COMPLETE;
 import static org.vosk.demo.api.Download.RESTARTING;
+import static org.vosk.demo.api.Download.STARTING;
 import static org.vosk.demo.api.VoskClient.ServiceType.DOWNLOAD_MODEL_LIST;
 import static org.vosk.demo.utils.Tools.isServiceRunning;
 
@@ -26,14 +27,18 @@ import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 
 import org.vosk.demo.DownloadModelService;
+import org.vosk.demo.DownloadQueue;
 import org.vosk.demo.R;
+import org.vosk.demo.api.ModelCatalogCache;
 import org.vosk.demo.api.VoskClient;
 import org.vosk.demo.api.VoskService;
 import org.vosk.demo.utils.Error;
 import org.vosk.demo.utils.EventBus;
 import org.vosk.demo.utils.PreferenceConstants;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 import io.reactivex.android.schedulers.AndroidSchedulers;
@@ -44,7 +49,8 @@ public class ModelListActivity extends AppCompatActivity {
 
     private final EventBus eventBus = EventBus.getInstance();
     private final CompositeDisposable compositeDisposable = new CompositeDisposable();
-    private final VoskService service = VoskClient.getClient(null, DOWNLOAD_MODEL_LIST);
+    private VoskService service;
+    private ModelCatalogCache catalogCache;
 
     private ModelListAdapter modelListAdapter;
     private SharedPreferences sharedPreferences;
@@ -54,8 +60,9 @@ public class ModelListActivity extends AppCompatActivity {
     private ProgressBar progressBar;
 
     private List<ModelItem> offlineModels;
-    public String modelDownloadingName = "";
-    public static int progress = CLEAR;
+    private DownloadQueue downloadQueue;
+    private static final Map<String, Integer> progress = new HashMap<>();
+    private static final Map<String, Integer> phases = new HashMap<>();
     private boolean isOnline;
 
 
@@ -66,7 +73,11 @@ public class ModelListActivity extends AppCompatActivity {
 
         //Init fields
         sharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
+        service = VoskClient.getClient(this, DOWNLOAD_MODEL_LIST);
+        catalogCache = new ModelCatalogCache(sharedPreferences);
+        downloadQueue = new DownloadQueue(sharedPreferences);
         modelListAdapter = new ModelListAdapter(sharedPreferences);
+        refreshQueuedModels();
         checkIfIsDownloading();
         loadOfflineModels();
         initViews();
@@ -74,10 +85,36 @@ public class ModelListActivity extends AppCompatActivity {
         loadModels();
     }
 
+    public static synchronized int getProgress(String modelName) {
+        Integer modelProgress = progress.get(modelName);
+        return modelProgress != null ? modelProgress : CLEAR;
+    }
+
+    public static synchronized void setProgress(String modelName, int modelProgress) {
+        setProgress(modelName, modelProgress, 0);
+    }
+
+    public static synchronized void setProgress(String modelName, int modelProgress, int phase) {
+        progress.put(modelName, modelProgress);
+        phases.put(modelName, phase);
+    }
+
+    /**
+     * See {@link org.vosk.demo.api.Download#getPhase()}.
+     */
+    public static synchronized int getPhase(String modelName) {
+        Integer phase = phases.get(modelName);
+        return phase != null ? phase : 0;
+    }
+
+    private void refreshQueuedModels() {
+        modelListAdapter.setQueuedModels(downloadQueue.getModelNames());
+    }
+
     private void checkIfIsDownloading() {
-        modelDownloadingName = sharedPreferences.getString(PreferenceConstants.DOWNLOADING_FILE, "");
-        if (!modelDownloadingName.equals("") && !isServiceRunning(this)) {
-            progress = RESTARTING;
+        if (!downloadQueue.isEmpty() && !isServiceRunning(this)) {
+            for (DownloadQueue.Item item : downloadQueue.getItems())
+                setProgress(item.getModelName(), RESTARTING);
             startDownloadModelService();
         }
     }
@@ -91,20 +128,71 @@ public class ModelListActivity extends AppCompatActivity {
     }
 
     private void loadModels() {
-        compositeDisposable.add(service.getModelList()
+        // Render the last known catalog right away and revalidate it in the background
+        List<ModelItem> cachedModels = catalogCache.getModels();
+        if (cachedModels != null) {
+            showList();
+            modelListAdapter.updateDataset(filterCatalog(cachedModels));
+        }
+
+        compositeDisposable.add(service.getModelList(catalogCache.getEtag(), catalogCache.getLastModified())
                 .subscribeOn(Schedulers.io())
+                .doOnNext(response -> {
+                    if (response.isSuccessful() && response.body() != null)
+                        catalogCache.store(response.body(), response.headers());
+                })
                 .observeOn(AndroidSchedulers.mainThread())
                 .subscribe(
-                        newDataset -> {
-                            showList();
-                            modelListAdapter.updateDataset(newDataset.stream().filter(it -> it.getType().equals("small") && !it.getObsolete()).collect(Collectors.toList()));
+                        response -> {
+                            if (response.isSuccessful() && response.body() != null) {
+                                showList();
+                                modelListAdapter.updateDataset(filterCatalog(response.body()));
+                                enqueueUpdates(response.body());
+                            } else if (cachedModels == null) {
+                                showOfflineList();
+                            }
                         },
                         error -> {
-                            showList();
-                            modelListAdapter.updateDataset(offlineModels);
+                            if (cachedModels == null)
+                                showOfflineList();
                         }));
     }
 
+    /**
+     * Queues installed models whose release in the catalog is newer. Models installed before
+     * versions were recorded are left alone.
+     */
+    private void enqueueUpdates(List<ModelItem> catalog) {
+        boolean queued = false;
+        for (ModelItem offlineModel : offlineModels) {
+            if (offlineModel.getVersion() == null)
+                continue;
+            for (ModelItem catalogModel : catalog) {
+                if (catalogModel.getName().equals(offlineModel.getName())
+                        && catalogModel.getVersion() != null
+                        && !catalogModel.getVersion().equals(offlineModel.getVersion())
+                        && downloadQueue.enqueueUpdate(catalogModel)) {
+                    setProgress(catalogModel.getName(), STARTING);
+                    queued = true;
+                }
+            }
+        }
+        if (queued) {
+            refreshQueuedModels();
+            modelListAdapter.notifyDataSetChanged();
+            startDownloadModelService();
+        }
+    }
+
+    private List<ModelItem> filterCatalog(List<ModelItem> catalog) {
+        return catalog.stream().filter(it -> it.getType().equals("small") && !it.getObsolete()).collect(Collectors.toList());
+    }
+
+    private void showOfflineList() {
+        showList();
+        modelListAdapter.updateDataset(offlineModels);
+    }
+
     private void showList() {
         progressBar.setVisibility(View.GONE);
         recyclerView.setVisibility(View.VISIBLE);
@@ -122,15 +210,18 @@ public class ModelListActivity extends AppCompatActivity {
                 .subscribeOn(Schedulers.io())
                 .observeOn(AndroidSchedulers.mainThread())
                 .subscribe(download -> {
+                    String modelName = download.getModelName();
+                    if (modelName == null)
+                        return;
                     if (download.getProgress() == COMPLETE) {
                         Toast.makeText(this, R.string.download_complete, Toast.LENGTH_SHORT).show();
                         loadOfflineModels();
-                        progress = CLEAR;
+                        refreshQueuedModels();
+                        setProgress(modelName, CLEAR);
                         modelListAdapter.notifyDataSetChanged();
-                    } else if (progress != download.getProgress()) {
-                        progress = download.getProgress();
-                        if (modelDownloadingName != null && modelListAdapter.getDataset().stream().anyMatch(it -> it.getName().equals(modelDownloadingName)))
-                            modelListAdapter.notifyItemChanged(modelListAdapter.getDataset().indexOf((ModelItem) modelListAdapter.getDataset().stream().filter(it -> it.getName().equals(modelDownloadingName)).findFirst().get()));
+                    } else if (getProgress(modelName) != download.getProgress() || getPhase(modelName) != download.getPhase()) {
+                        setProgress(modelName, download.getProgress(), download.getPhase());
+                        notifyModelChanged(modelName);
                     }
                 }));
 
@@ -138,10 +229,12 @@ public class ModelListActivity extends AppCompatActivity {
                 .subscribeOn(Schedulers.io())
                 .observeOn(AndroidSchedulers.mainThread())
                 .subscribe(modelItem -> {
-                    //start service
+                    downloadQueue.enqueue(modelItem, DownloadQueue.DEFAULT_PRIORITY);
+                    refreshQueuedModels();
+                    setProgress(modelItem.getName(), STARTING);
+                    //start service, a running one picks the new item from the queue
                     startDownloadModelService();
-                    modelDownloadingName = modelItem.getName();
-                    sharedPreferences.edit().putString(PreferenceConstants.DOWNLOADING_FILE, modelItem.getName()).apply();
+                    notifyModelChanged(modelItem.getName());
                 }));
 
         compositeDisposable.add(eventBus.getModelSelectedObservable()
@@ -178,7 +271,7 @@ public class ModelListActivity extends AppCompatActivity {
         switch (error) {
             case CONNECTION: {
                 Toast.makeText(this, getString(R.string.connection_error), Toast.LENGTH_LONG).show();
-                if (!modelDownloadingName.equals("")) {
+                if (!downloadQueue.isEmpty()) {
                     modelListAdapter.notifyDataSetChanged();
                 }
             }
@@ -186,13 +279,27 @@ public class ModelListActivity extends AppCompatActivity {
             case WRITE_STORAGE:
                 Toast.makeText(this, getString(R.string.write_storage_error), Toast.LENGTH_LONG).show();
                 break;
+            case CHECKSUM:
+                Toast.makeText(this, getString(R.string.checksum_error), Toast.LENGTH_LONG).show();
+                break;
+            case INSUFFICIENT_STORAGE:
+                Toast.makeText(this, getString(R.string.insufficient_storage_error), Toast.LENGTH_LONG).show();
+                break;
         }
     }
 
     private void startDownloadModelService() {
-        if (!isServiceRunning(this)) {
-            Intent service = new Intent(this, DownloadModelService.class);
-            ContextCompat.startForegroundService(this, service);
+        Intent service = new Intent(this, DownloadModelService.class);
+        ContextCompat.startForegroundService(this, service);
+    }
+
+    private void notifyModelChanged(String modelName) {
+        List<ModelItem> dataset = modelListAdapter.getDataset();
+        for (int i = 0; i < dataset.size(); i++) {
+            if (dataset.get(i).getName().equals(modelName)) {
+                modelListAdapter.notifyItemChanged(i);
+                return;
+            }
         }
     }
 
@@ -200,11 +307,13 @@ public class ModelListActivity extends AppCompatActivity {
         if (isDownloaded(modelItem)) {
             selectDefaultModel(modelItem);
             modelListAdapter.notifyDataSetChanged();
-        } else if (!sharedPreferences.contains(PreferenceConstants.DOWNLOADING_FILE)) {
+        } else if (!downloadQueue.contains(modelItem.getName())) {
             EventBus.getInstance().postDownloadStart(modelItem);
-            modelListAdapter.notifyDataSetChanged();
         } else {
-            showWarningDialog(R.string.wait_for_download);
+            // Tapping a queued model again serves it next, and retries it if it failed
+            downloadQueue.moveToFront(modelItem.getName());
+            startDownloadModelService();
+            showWarningDialog(R.string.download_already_queued);
         }
     }
 
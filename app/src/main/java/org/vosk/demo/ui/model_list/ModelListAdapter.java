@@ -25,12 +25,15 @@ import org.vosk.demo.utils.EventBus;
 import org.vosk.demo.utils.PreferenceConstants;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public class ModelListAdapter extends ListAdapter<ModelItem, ModelListAdapter.ViewHolder> {
 
-    List<ModelItem> dataset = new ArrayList<>();
     SharedPreferences sharedPreferences;
+    private final Set<String> queuedModels = new HashSet<>();
 
     public ModelListAdapter(SharedPreferences sharedPreferences) {
         super(new DiffCallback());
@@ -45,19 +48,24 @@ public class ModelListAdapter extends ListAdapter<ModelItem, ModelListAdapter.Vi
 
     @Override
     public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
-        holder.bind(dataset.get(position));
+        holder.bind(getItem(position));
     }
 
+    /**
+     * The new list is diffed against the current one, only rows whose content changed are
+     * rebound.
+     */
     public void updateDataset(List<ModelItem> newDataset) {
-        dataset.clear();
-        dataset.addAll(newDataset);
-        submitList(newDataset);
+        submitList(new ArrayList<>(newDataset));
     }
 
-
-    @Override
-    public int getItemCount() {
-        return dataset.size();
+    /**
+     * Names of the models in the download queue, kept here so binding a row doesn't read the
+     * queue from the preferences. The caller notifies the rows that changed.
+     */
+    public void setQueuedModels(Collection<String> modelNames) {
+        queuedModels.clear();
+        queuedModels.addAll(modelNames);
     }
 
     class ViewHolder extends RecyclerView.ViewHolder {
@@ -77,7 +85,7 @@ public class ModelListAdapter extends ListAdapter<ModelItem, ModelListAdapter.Vi
             itemView.setOnClickListener(v -> EventBus.getInstance().postModelSelectedObservable(getCurrentList().get(getAdapterPosition())));
 
             int dotColor;
-            if (sharedPreferences.getString(PreferenceConstants.ACTIVE_MODEL, "").equals(dataset.get(getAdapterPosition()).getName())) {
+            if (sharedPreferences.getString(PreferenceConstants.ACTIVE_MODEL, "").equals(modelItem.getName())) {
                 dotColor = R.color.indicator_green;
             } else {
                 dotColor = R.color.indicator_red;
@@ -85,9 +93,10 @@ public class ModelListAdapter extends ListAdapter<ModelItem, ModelListAdapter.Vi
             ColorStateList csl = AppCompatResources.getColorStateList(itemView.getContext(), dotColor);
             ImageViewCompat.setImageTintList(downloadedIndicator, csl);
 
-            if (getAdapterPosition() != -1 && sharedPreferences.contains(PreferenceConstants.DOWNLOADING_FILE) && sharedPreferences.getString(PreferenceConstants.DOWNLOADING_FILE, "").equals(dataset.get(getAdapterPosition()).getName())) {
+            if (getAdapterPosition() != -1 && queuedModels.contains(modelItem.getName())) {
                 downloadProgress.setVisibility(View.VISIBLE);
-                switch (ModelListActivity.progress) {
+                int progress = ModelListActivity.getProgress(modelItem.getName());
+                switch (progress) {
                     case COMPLETE:
                     case CLEAR:
                         downloadProgress.setVisibility(View.GONE);
@@ -102,9 +111,12 @@ public class ModelListAdapter extends ListAdapter<ModelItem, ModelListAdapter.Vi
                         downloadProgress.setText(R.string.model_download_unzipping);
                         break;
                     default: {
-                        String progress = "Downloading: " + ModelListActivity.progress + "%";
-                        if (!downloadProgress.getText().equals(progress))
-                            downloadProgress.setText(progress);
+                        int phaseText = ModelListActivity.getPhase(modelItem.getName()) == UNZIPPING
+                                ? R.string.model_extract_progress
+                                : R.string.model_download_progress;
+                        String progressText = itemView.getContext().getString(phaseText, progress);
+                        if (!downloadProgress.getText().equals(progressText))
+                            downloadProgress.setText(progressText);
                     }
                 }
             } else downloadProgress.setVisibility(View.GONE);
@@ -114,6 +126,6 @@ public class ModelListAdapter extends ListAdapter<ModelItem, ModelListAdapter.Vi
 
 
     public List<ModelItem> getDataset() {
-        return dataset;
+        return getCurrentList();
     }
 }
@@ -0,0 +1,61 @@
+package org.vosk.demo.utils;
+
+/**
+ * Bounded FIFO of 16 bit samples, a full buffer drops the oldest ones.
+ */
+public class AudioRingBuffer {
+
+    private final short[] samples;
+    private int start;
+    private int size;
+    private long dropped;
+
+    public AudioRingBuffer(int capacity) {
+        this.samples = new short[capacity];
+    }
+
+    public synchronized void write(short[] data, int length) {
+        int offset = 0;
+        if (length > samples.length) {
+            // Only the tail fits
+            offset = length - samples.length;
+            dropped += offset;
+            length = samples.length;
+        }
+        int overflow = size + length - samples.length;
+        if (overflow > 0) {
+            start = (start + overflow) % samples.length;
+            size -= overflow;
+            dropped += overflow;
+        }
+        int end = (start + size) % samples.length;
+        int first = Math.min(length, samples.length - end);
+        System.arraycopy(data, offset, samples, end, first);
+        System.arraycopy(data, offset + first, samples, 0, length - first);
+        size += length;
+    }
+
+    /**
+     * @return the number of samples read, 0 when empty
+     */
+    public synchronized int read(short[] out) {
+        int length = Math.min(out.length, size);
+        int first = Math.min(length, samples.length - start);
+        System.arraycopy(samples, start, out, 0, first);
+        System.arraycopy(samples, 0, out, first, length - first);
+        start = (start + length) % samples.length;
+        size -= length;
+        return length;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return samples lost to overflow since the buffer was created
+     */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+}
@@ -0,0 +1,68 @@
+package org.vosk.demo.utils;
+
+import android.app.ActivityManager;
+import android.content.Context;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Fixed-size heap buffers handed out to I/O loops and taken back, so copying many files does
+ * not allocate a buffer per file. At most {@code maxPooled} buffers are kept, any further ones
+ * are left to the garbage collector.
+ */
+public class BufferPool {
+
+    private static final int SMALL_BUFFER_SIZE = 16 * 1024;
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final int LARGE_BUFFER_SIZE = 256 * 1024;
+    private static final int LOW_MEMORY_CLASS_MB = 96;
+    private static final int HIGH_MEMORY_CLASS_MB = 256;
+
+    private final int bufferSize;
+    private final ArrayBlockingQueue<ByteBuffer> buffers;
+
+    public BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.buffers = new ArrayBlockingQueue<>(Math.max(1, maxPooled));
+    }
+
+    /**
+     * Larger buffers mean fewer system calls per byte, but every extraction thread holds one,
+     * so the size follows the heap the device gives to an app.
+     */
+    public static int getBufferSize(Context context) {
+        ActivityManager manager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int memoryClass = manager.getMemoryClass();
+        if (memoryClass <= LOW_MEMORY_CLASS_MB) {
+            return SMALL_BUFFER_SIZE;
+        }
+        return memoryClass >= HIGH_MEMORY_CLASS_MB ? LARGE_BUFFER_SIZE : DEFAULT_BUFFER_SIZE;
+    }
+
+    public static int getDefaultBufferSize() {
+        return DEFAULT_BUFFER_SIZE;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return a cleared buffer backed by an array
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocate(bufferSize);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (buffer.capacity() == bufferSize) {
+            buffers.offer(buffer);
+        }
+    }
+}
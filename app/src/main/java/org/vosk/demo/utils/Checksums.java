@@ -0,0 +1,68 @@
+package org.vosk.demo.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+public class Checksums {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    public static MessageDigest newMd5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Android release ships MD5
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Feeds the first {@code length} bytes of the file to the digest, e.g. the part of a resumed
+     * download that is already on disk.
+     */
+    public static void update(MessageDigest digest, File file, long length) throws IOException {
+        try (InputStream input = new FileInputStream(file)) {
+            byte[] data = new byte[BUFFER_SIZE];
+            long remaining = length;
+            int count;
+            while (remaining > 0 && (count = input.read(data, 0, (int) Math.min(data.length, remaining))) != -1) {
+                digest.update(data, 0, count);
+                remaining -= count;
+            }
+            if (remaining > 0) {
+                throw new IOException(file + " is shorter than " + length + " bytes");
+            }
+        }
+    }
+
+    /**
+     * @throws MismatchException if the digest does not match the expected hex string
+     */
+    public static String verify(MessageDigest digest, String expected) throws MismatchException {
+        String actual = toHex(digest.digest());
+        if (!actual.equalsIgnoreCase(expected)) {
+            throw new MismatchException(expected, actual);
+        }
+        return actual;
+    }
+
+    public static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    public static class MismatchException extends IOException {
+        public MismatchException(String expected, String actual) {
+            super("Checksum mismatch, expected " + expected + " but got " + actual);
+        }
+    }
+}
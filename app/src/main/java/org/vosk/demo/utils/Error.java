@@ -2,5 +2,7 @@ package org.vosk.demo.utils;
 
 public enum Error {
     CONNECTION,
-    WRITE_STORAGE
+    WRITE_STORAGE,
+    CHECKSUM,
+    INSUFFICIENT_STORAGE
 }
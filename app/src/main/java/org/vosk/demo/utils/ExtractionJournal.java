@@ -0,0 +1,55 @@
+package org.vosk.demo.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Names of the archive entries that were completely written to the staging directory, one per
+ * line. An entry is only appended once its file was synced, so after a crash every listed entry
+ * is on disk and an interrupted extraction can skip it.
+ */
+public class ExtractionJournal {
+
+    private final File file;
+    private final Set<String> completeEntries = new HashSet<>();
+
+    private ExtractionJournal(File file) {
+        this.file = file;
+    }
+
+    public static ExtractionJournal load(File file) throws IOException {
+        ExtractionJournal journal = new ExtractionJournal(file);
+        if (file.exists()) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    journal.completeEntries.add(line);
+                }
+            }
+        }
+        return journal;
+    }
+
+    public synchronized boolean isComplete(String entryName) {
+        return completeEntries.contains(entryName);
+    }
+
+    public synchronized void markComplete(String entryName) throws IOException {
+        try (FileOutputStream output = new FileOutputStream(file, true)) {
+            output.write((entryName + "\n").getBytes(StandardCharsets.UTF_8));
+            output.getFD().sync();
+        }
+        completeEntries.add(entryName);
+    }
+
+    public void delete() {
+        file.delete();
+    }
+}
@@ -0,0 +1,38 @@
+package org.vosk.demo.utils;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+public class FileAllocation {
+
+    /**
+     * Reserves {@code length} bytes for the file up front, so it is laid out in one piece instead
+     * of fragmenting while it grows, and a full storage is reported before any data is written.
+     * Filesystems without fallocate support only get the file length set.
+     *
+     * @throws InsufficientStorageException if the storage can't hold the file
+     */
+    public static void preallocate(RandomAccessFile file, long length) throws IOException {
+        if (file.length() >= length) {
+            return;
+        }
+        try {
+            Os.posix_fallocate(file.getFD(), 0, length);
+        } catch (ErrnoException e) {
+            if (e.errno == OsConstants.ENOSPC) {
+                throw new InsufficientStorageException(length);
+            }
+            file.setLength(length);
+        }
+    }
+
+    public static class InsufficientStorageException extends IOException {
+        public InsufficientStorageException(long length) {
+            super("Not enough storage for " + length + " bytes");
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package org.vosk.demo.utils;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+
+import okio.Buffer;
+import okio.Sink;
+import okio.Timeout;
+
+/**
+ * Writes Okio segments to a file channel at a given position through one reused direct buffer,
+ * so the bytes go from the socket buffer to the kernel without intermediate heap arrays. The
+ * written data can be fed to a digest on the way, and is forced to the storage every
+ * {@code syncIntervalBytes} instead of on every write.
+ */
+public class FileChannelSink implements Sink {
+
+    /**
+     * Leave flushing to the kernel, only {@link #close()} forces the data to the storage.
+     */
+    public static final long SYNC_ON_CLOSE = 0;
+    public static final long DEFAULT_SYNC_INTERVAL_BYTES = 16 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final long syncIntervalBytes;
+    private final MessageDigest digest;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private long position;
+    private long syncedPosition;
+    private long unsyncedBytes;
+
+    /**
+     * @param digest updated with every written byte, may be null
+     */
+    public FileChannelSink(FileChannel channel, long position, long syncIntervalBytes, MessageDigest digest) {
+        this.channel = channel;
+        this.position = position;
+        this.syncedPosition = position;
+        this.syncIntervalBytes = syncIntervalBytes;
+        this.digest = digest;
+    }
+
+    @Override
+    public void write(@NonNull Buffer source, long byteCount) throws IOException {
+        long remaining = byteCount;
+        while (remaining > 0) {
+            buffer.clear();
+            buffer.limit((int) Math.min(BUFFER_SIZE, remaining));
+            int count = source.read(buffer);
+            buffer.flip();
+            if (digest != null) {
+                digest.update(buffer.duplicate());
+            }
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            remaining -= count;
+            unsyncedBytes += count;
+            if (syncIntervalBytes > SYNC_ON_CLOSE && unsyncedBytes >= syncIntervalBytes) {
+                sync();
+            }
+        }
+    }
+
+    /**
+     * @return the file position the next byte goes to
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * @return the position up to which the written data is known to be on the storage
+     */
+    public long getSyncedPosition() {
+        return syncedPosition;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        sync();
+    }
+
+    @NonNull
+    @Override
+    public Timeout timeout() {
+        return Timeout.NONE;
+    }
+
+    /**
+     * Does not close the channel, it belongs to the caller.
+     */
+    @Override
+    public void close() throws IOException {
+        sync();
+    }
+
+    private void sync() throws IOException {
+        if (unsyncedBytes > 0) {
+            channel.force(false);
+            unsyncedBytes = 0;
+        }
+        syncedPosition = position;
+    }
+}
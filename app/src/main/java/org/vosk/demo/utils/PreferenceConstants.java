@@ -4,4 +4,20 @@ public class PreferenceConstants {
     public static final String DOWNLOADING_FILE = "downloading_file";
     public static final String ACTIVE_MODEL = "active_model";
     public static final String OFFLINE_LIST = "offline_list";
+    public static final String STREAMING_EXTRACTION = "streaming_extraction";
+    public static final String DOWNLOAD_QUEUE = "download_queue";
+    public static final String DOWNLOAD_PARALLELISM = "download_parallelism";
+    public static final String DOWNLOAD_BANDWIDTH_LIMIT = "download_bandwidth_limit";
+    public static final String MODEL_MIRRORS = "model_mirrors";
+    public static final String DOWNLOAD_STATS = "download_stats";
+    public static final String DOWNLOAD_SYNC_INTERVAL = "download_sync_interval";
+    public static final String EXTRACTION_BUFFER_SIZE = "extraction_buffer_size";
+    public static final String DEEP_MODEL_VERIFICATION = "deep_model_verification";
+    public static final String MODEL_LAST_USED = "model_last_used";
+    public static final String MODEL_DISK_BUDGET = "model_disk_budget";
+    public static final String RECOGNITION_KEEP_ALIVE = "recognition_keep_alive";
+    public static final String RECOGNITION_MAX_SESSIONS = "recognition_max_sessions";
+    public static final String CATALOG_JSON = "catalog_json";
+    public static final String CATALOG_ETAG = "catalog_etag";
+    public static final String CATALOG_LAST_MODIFIED = "catalog_last_modified";
 }
@@ -0,0 +1,101 @@
+package org.vosk.demo.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * File moves and deletions that bring an installed model to a new release, one per line. The
+ * journal is synced before the first one is carried out, so after a crash the remaining ones are
+ * replayed. Every operation can be repeated, a move whose source is gone was already done.
+ */
+public class UpdateJournal {
+
+    private static final String MOVE = "M";
+    private static final String DELETE = "D";
+    private static final String SEPARATOR = "\t";
+
+    private final File file;
+    private final List<String[]> operations = new ArrayList<>();
+
+    public UpdateJournal(File file) {
+        this.file = file;
+    }
+
+    public void addMove(File from, File to) {
+        operations.add(new String[]{MOVE, from.getPath(), to.getPath()});
+    }
+
+    public void addDelete(File target) {
+        operations.add(new String[]{DELETE, target.getPath()});
+    }
+
+    /**
+     * Writes the journal, from then on the update is carried out even if the process dies.
+     */
+    public void commit() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream output = new FileOutputStream(tmp)) {
+            StringBuilder lines = new StringBuilder();
+            for (String[] operation : operations) {
+                for (int i = 0; i < operation.length; i++) {
+                    lines.append(i == 0 ? "" : SEPARATOR).append(operation[i]);
+                }
+                lines.append('\n');
+            }
+            output.write(lines.toString().getBytes(StandardCharsets.UTF_8));
+            output.getFD().sync();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Can't write " + file);
+        }
+    }
+
+    public void apply() throws IOException {
+        for (String[] operation : operations) {
+            if (MOVE.equals(operation[0])) {
+                move(new File(operation[1]), new File(operation[2]));
+            } else {
+                new File(operation[1]).delete();
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * @return true if an interrupted update was finished
+     */
+    public static boolean recover(File file) throws IOException {
+        if (!file.exists()) {
+            return false;
+        }
+        UpdateJournal journal = new UpdateJournal(file);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                journal.operations.add(line.split(SEPARATOR));
+            }
+        }
+        journal.apply();
+        return true;
+    }
+
+    private static void move(File from, File to) throws IOException {
+        if (!from.exists()) {
+            return;
+        }
+        File parent = to.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Can't create " + parent);
+        }
+        if (!from.renameTo(to)) {
+            throw new IOException("Can't move " + from + " to " + to);
+        }
+    }
+}
@@ -1,80 +1,454 @@
 package org.vosk.demo.utils;
 
-import static org.vosk.demo.api.Download.CLEAR;
-import static org.vosk.demo.api.Download.COMPLETE;
-
-import org.vosk.demo.api.Download;
-import org.vosk.demo.ui.model_list.ModelListActivity;
-
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
 
 public class ZipHelper {
 
-    public static void unzipFIle(File zipFilePath, File unzipAtLocation) {
+    /**
+     * Entries are inflated in parallel on this many threads, shared by every extraction so
+     * models that finish downloading together don't oversubscribe the cores.
+     */
+    public static final int EXTRACTION_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+    private static final long IDLE_THREAD_TIMEOUT_SECONDS = 30;
+    private static final String STAGING_SUFFIX = ".staging";
+    private static final String JOURNAL_SUFFIX = ".extraction";
+    private static final String REPLACED_SUFFIX = ".replaced";
+    private static final String UPDATE_JOURNAL_SUFFIX = ".update";
+
+    private static ExecutorService extractionPool;
+    private static volatile BufferPool bufferPool = new BufferPool(BufferPool.getDefaultBufferSize(), EXTRACTION_THREADS);
+
+    public interface ProgressListener {
+        /**
+         * Called from the extraction threads, {@code totalBytes} is the uncompressed size of the
+         * whole archive.
+         */
+        void onProgress(long extractedBytes, long totalBytes);
+    }
+
+    /**
+     * A file written by an extraction, with the MD5 computed while its bytes went to disk.
+     */
+    public static class ExtractedFile {
+        private final String path;
+        private final long size;
+        private final String md5;
+
+        ExtractedFile(String path, long size, String md5) {
+            this.path = path;
+            this.size = size;
+            this.md5 = md5;
+        }
+
+        /**
+         * Relative to the model directory, with {@code /} separators.
+         */
+        public String getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public String getMd5() {
+            return md5;
+        }
+    }
 
-        unzipAtLocation.mkdir();
+    /**
+     * Sets the size of the copy buffers, see {@link BufferPool#getBufferSize(android.content.Context)}.
+     */
+    public static void setBufferSize(int bufferSize) {
+        if (bufferPool.getBufferSize() != bufferSize) {
+            bufferPool = new BufferPool(bufferSize, EXTRACTION_THREADS);
+        }
+    }
 
+    /**
+     * Extracts the archive of a model into the directory named after it. Blocks until every
+     * entry is written, so it must not be called on the main thread.
+     * <p>
+     * The entries go to a staging directory first and the model only appears under its name,
+     * by a rename, once the whole archive is extracted. An extraction interrupted by a crash
+     * keeps the entries it finished: when run again, entries that are in the journal and still
+     * match the size and CRC of the archive are not inflated again.
+     *
+     * @param listener receives the number of bytes extracted so far, may be null
+     * @return every file of the archive
+     */
+    public static List<ExtractedFile> unzipFile(File zipFilePath, File unzipAtLocation, ProgressListener listener) throws IOException {
+        File stagingDir = getStagingDir(unzipAtLocation);
+        createDirs(stagingDir);
+        ExtractionJournal journal = ExtractionJournal.load(new File(unzipAtLocation.getPath() + JOURNAL_SUFFIX));
+
+        List<ExtractedFile> files;
         try (ZipFile zipfile = new ZipFile(zipFilePath)) {
-            for (Enumeration<? extends ZipEntry> e = zipfile.entries(); e.hasMoreElements(); ) {
-                ZipEntry entry = e.nextElement();
-                unzipEntry(zipfile, entry, unzipAtLocation);
+            files = unzipParallel(zipfile, stagingDir, journal, listener);
+        }
+        publish(unzipAtLocation);
+        journal.delete();
+        return files;
+    }
+
+    /**
+     * Extracts the archive while it is being read, e.g. straight from a download. Only the local
+     * headers are used, so nothing has to be buffered on disk before the first entry is written.
+     * The central directory after the last entry is still read, so a caller hashing the stream
+     * sees every byte of the archive.
+     * <p>
+     * The entries are left in the staging directory, the caller checks the archive and then
+     * calls {@link #publish(File)}. A stream can't be resumed, a previous attempt is discarded.
+     *
+     * @return every file of the archive
+     */
+    public static List<ExtractedFile> unzipStream(InputStream inputStream, File unzipAtLocation) throws IOException {
+        File stagingDir = getStagingDir(unzipAtLocation);
+        deleteRecursively(stagingDir);
+        createDirs(stagingDir);
+
+        List<ExtractedFile> files = new ArrayList<>();
+        try (ZipInputStream zin = new ZipInputStream(new BufferedInputStream(inputStream))) {
+            ZipEntry entry;
+            while ((entry = zin.getNextEntry()) != null) {
+                File outputFile = resolveEntry(stagingDir, entry);
+                if (entry.isDirectory()) {
+                    createDirs(outputFile);
+                    continue;
+                }
+                createDirs(outputFile.getParentFile());
+
+                MessageDigest digest = Checksums.newMd5();
+                try (FileOutputStream output = new FileOutputStream(outputFile)) {
+                    long size = copy(zin, output.getChannel(), digest, null);
+                    files.add(new ExtractedFile(entry.getName(), size, Checksums.toHex(digest.digest())));
+                } catch (IOException e) {
+                    throw new IOException("unzipStream(" + entry + ")[" + entry.getSize() + "] ", e);
+                }
+            }
+
+            ByteBuffer buffer = bufferPool.acquire();
+            try {
+                while (inputStream.read(buffer.array()) != -1) {
+                    // drain the central directory
+                }
+            } finally {
+                bufferPool.release(buffer);
             }
-            EventBus.getInstance().postDownloadStatus(new Download(COMPLETE));
-        } catch (IOException e) {
-            ModelListActivity.progress = CLEAR;
-            EventBus.getInstance().postErrorStatus(Error.CONNECTION);
-            e.printStackTrace();
         }
+        return files;
+    }
+
+    public static File getStagingDir(File unzipAtLocation) {
+        return new File(unzipAtLocation.getPath() + STAGING_SUFFIX);
     }
 
-    private static void unzipEntry(ZipFile zipfile, ZipEntry entry, File outputDir) throws IOException {
-        if (entry.isDirectory()) {
-            createDir(new File(outputDir, entry.getName()));
+    /**
+     * Moves the staged extraction of a model to its final place. A model that is already
+     * installed is moved aside first and deleted once the new tree is in place.
+     */
+    public static void publish(File unzipAtLocation) throws IOException {
+        File stagingDir = getStagingDir(unzipAtLocation);
+        File replacedDir = new File(unzipAtLocation.getPath() + REPLACED_SUFFIX);
+        deleteRecursively(replacedDir);
+        if (unzipAtLocation.exists() && !unzipAtLocation.renameTo(replacedDir)) {
+            throw new IOException("Can't move " + unzipAtLocation + " aside");
+        }
+        if (!stagingDir.renameTo(unzipAtLocation)) {
+            replacedDir.renameTo(unzipAtLocation);
+            throw new IOException("Can't publish " + unzipAtLocation);
+        }
+        deleteRecursively(replacedDir);
+    }
+
+    public static File getUpdateJournalFile(File unzipAtLocation) {
+        return new File(unzipAtLocation.getPath() + UPDATE_JOURNAL_SUFFIX);
+    }
+
+    /**
+     * A crash between the two renames of {@link #publish(File)} leaves the installed model under
+     * its aside name, move it back. An update whose {@link UpdateJournal} was committed is
+     * finished.
+     */
+    public static void recoverPublish(File unzipAtLocation) throws IOException {
+        if (UpdateJournal.recover(getUpdateJournalFile(unzipAtLocation))) {
+            deleteRecursively(getStagingDir(unzipAtLocation));
+        }
+        File replacedDir = new File(unzipAtLocation.getPath() + REPLACED_SUFFIX);
+        if (!replacedDir.exists()) {
             return;
         }
+        if (unzipAtLocation.exists()) {
+            deleteRecursively(replacedDir);
+        } else {
+            replacedDir.renameTo(unzipAtLocation);
+        }
+    }
 
-        File outputFile = new File(outputDir, entry.getName());
-        if (!outputFile.getParentFile().exists()) {
-            createDir(outputFile.getParentFile());
+    /**
+     * Directories are created up front, then the file entries are inflated on the extraction
+     * pool, largest first, so a few big files (final.mdl, HCLG.fst) don't end up last on one core.
+     */
+    private static List<ExtractedFile> unzipParallel(ZipFile zipfile, File outputDir, ExtractionJournal journal,
+                                                     ProgressListener listener) throws IOException {
+        List<ZipEntry> fileEntries = new ArrayList<>();
+        long totalBytes = 0;
+        for (Enumeration<? extends ZipEntry> e = zipfile.entries(); e.hasMoreElements(); ) {
+            ZipEntry entry = e.nextElement();
+            File outputFile = resolveEntry(outputDir, entry);
+            if (entry.isDirectory()) {
+                createDirs(outputFile);
+            } else {
+                createDirs(outputFile.getParentFile());
+                fileEntries.add(entry);
+                totalBytes += Math.max(0, entry.getSize());
+            }
         }
+        Collections.sort(fileEntries, (first, second) -> Long.compare(second.getSize(), first.getSize()));
 
-        String message = "unzipEntry(" + entry + ")[" + entry.getSize() + "] ";
+        Progress progress = new Progress(listener, totalBytes);
+        ExecutorService pool = getExtractionPool();
+        Batch batch = new Batch();
+        List<Future<ExtractedFile>> tasks = new ArrayList<>();
+        for (ZipEntry entry : fileEntries) {
+            tasks.add(pool.submit(() -> {
+                if (!batch.begin()) {
+                    return null;
+                }
+                try {
+                    String md5 = getExtractedMd5(entry, resolveEntry(outputDir, entry), journal);
+                    if (md5 != null) {
+                        progress.add(entry.getSize());
+                    } else {
+                        md5 = unzipEntry(zipfile, entry, outputDir, progress);
+                        journal.markComplete(entry.getName());
+                    }
+                    return new ExtractedFile(entry.getName(), entry.getSize(), md5);
+                } finally {
+                    batch.end();
+                }
+            }));
+        }
+        try {
+            List<ExtractedFile> files = new ArrayList<>();
+            for (Future<ExtractedFile> task : tasks) {
+                files.add(task.get());
+            }
+            return files;
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Extraction interrupted", e);
+        } finally {
+            batch.abort();
+            for (Future<ExtractedFile> task : tasks) {
+                task.cancel(true);
+            }
+            // Running tasks keep writing until they notice, the caller closes the archive and
+            // cleans up the staging directory right after
+            batch.awaitRunning();
+        }
+    }
+
+    /**
+     * Tasks of one extraction that are inflating right now. A cancelled task that never started
+     * does not run at all, so {@link Future#get()} can't tell when the others are done.
+     */
+    private static class Batch {
+        private boolean aborted;
+        private int running;
 
-        InputStream zin = zipfile.getInputStream(entry);
+        synchronized boolean begin() {
+            if (aborted) {
+                return false;
+            }
+            running++;
+            return true;
+        }
 
-        try (BufferedInputStream input = new BufferedInputStream(zin);
-             BufferedOutputStream output = new BufferedOutputStream(new FileOutputStream(outputFile));) {
-            copy(input, output);
+        synchronized void end() {
+            running--;
+            notifyAll();
+        }
+
+        synchronized void abort() {
+            aborted = true;
+        }
+
+        synchronized void awaitRunning() {
+            boolean interrupted = false;
+            while (running > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static synchronized ExecutorService getExtractionPool() {
+        if (extractionPool == null) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(EXTRACTION_THREADS, EXTRACTION_THREADS,
+                    IDLE_THREAD_TIMEOUT_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+            pool.allowCoreThreadTimeOut(true);
+            extractionPool = pool;
+        }
+        return extractionPool;
+    }
+
+    /**
+     * @return the MD5 of the extracted file
+     */
+    private static String unzipEntry(ZipFile zipfile, ZipEntry entry, File outputDir, Progress progress) throws IOException {
+        File outputFile = resolveEntry(outputDir, entry);
+        String message = "unzipEntry(" + entry + ")[" + entry.getSize() + "] ";
+
+        MessageDigest digest = Checksums.newMd5();
+        try (InputStream input = zipfile.getInputStream(entry);
+             FileOutputStream output = new FileOutputStream(outputFile)) {
+            copy(input, output.getChannel(), digest, progress);
+            // The journal must never list an entry the storage does not hold yet
+            output.getFD().sync();
         } catch (IOException e) {
             throw new IOException(message, e);
         }
+        return Checksums.toHex(digest.digest());
+    }
+
+    /**
+     * The CRC check of an entry left by an interrupted extraction reads the file anyway, its MD5
+     * is computed in the same pass.
+     *
+     * @return the MD5 of the file, null if the entry has to be extracted again
+     */
+    private static String getExtractedMd5(ZipEntry entry, File outputFile, ExtractionJournal journal) throws IOException {
+        if (!journal.isComplete(entry.getName()) || outputFile.length() != entry.getSize()) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        MessageDigest digest = Checksums.newMd5();
+        ByteBuffer buffer = bufferPool.acquire();
+        try (InputStream input = new FileInputStream(outputFile)) {
+            int count;
+            while ((count = input.read(buffer.array())) != -1) {
+                crc.update(buffer.array(), 0, count);
+                digest.update(buffer.array(), 0, count);
+            }
+        } finally {
+            bufferPool.release(buffer);
+        }
+        return crc.getValue() == entry.getCrc() ? Checksums.toHex(digest.digest()) : null;
+    }
+
+    /**
+     * Rejects entries like {@code ../../x} or absolute names that would be written outside of
+     * the output directory.
+     */
+    private static File resolveEntry(File outputDir, ZipEntry entry) throws IOException {
+        File outputFile = new File(outputDir, entry.getName());
+        String dirPath = outputDir.getCanonicalPath() + File.separator;
+        if (!outputFile.getCanonicalPath().startsWith(dirPath)) {
+            throw new IOException("Entry " + entry.getName() + " is outside of " + outputDir);
+        }
+        return outputFile;
     }
 
     public static void createDir(File dir) {
         if (dir.exists()) {
             return;
         }
-        boolean folderCreated = dir.mkdir();
+        boolean folderCreated = dir.mkdirs();
     }
 
-    private static void copy(InputStream input, OutputStream output) throws IOException {
-        byte data[] = new byte[10240];
-        int count;
+    private static void createDirs(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("Can't create " + dir);
+        }
+    }
 
-        int total = 0;
-        while ((count = input.read(data)) != -1) {
-            output.write(data, 0, count);
-            total += count;
+    public static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * The inflater fills a pooled buffer that goes to the file channel as is, there is no
+     * buffered stream on either side to copy the bytes a second time. The digest is fed from the
+     * same buffer.
+     *
+     * @return the number of bytes copied
+     */
+    private static long copy(InputStream input, FileChannel output, MessageDigest digest, Progress progress) throws IOException {
+        ByteBuffer buffer = bufferPool.acquire();
+        long total = 0;
+        try {
+            int count;
+            while ((count = input.read(buffer.array(), 0, buffer.capacity())) != -1) {
+                digest.update(buffer.array(), 0, count);
+                total += count;
+                buffer.clear();
+                buffer.limit(count);
+                while (buffer.hasRemaining()) {
+                    output.write(buffer);
+                }
+                if (progress != null) {
+                    progress.add(count);
+                }
+            }
+        } finally {
+            bufferPool.release(buffer);
+        }
+        return total;
+    }
+
+    private static class Progress {
+        private final ProgressListener listener;
+        private final long totalBytes;
+        private final AtomicLong extractedBytes = new AtomicLong();
+
+        Progress(ProgressListener listener, long totalBytes) {
+            this.listener = listener;
+            this.totalBytes = totalBytes;
+        }
+
+        void add(long bytes) {
+            long extracted = extractedBytes.addAndGet(bytes);
+            if (listener != null) {
+                listener.onProgress(extracted, totalBytes);
+            }
         }
-        output.flush();
     }
 }
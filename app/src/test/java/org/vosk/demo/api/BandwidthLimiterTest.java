@@ -0,0 +1,100 @@
+package org.vosk.demo.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.Buffer;
+import okio.Okio;
+
+public class BandwidthLimiterTest {
+
+    private static final long RATE = 200_000;
+
+    private MockWebServer server;
+    private BandwidthLimiter limiter;
+    private OkHttpClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        limiter = new BandwidthLimiter();
+        client = new OkHttpClient.Builder().addNetworkInterceptor(limiter).build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    private void enqueue(int size) {
+        server.enqueue(new MockResponse().setBody(new Buffer().write(new byte[size])));
+    }
+
+    private long download() throws IOException {
+        try (Response response = client.newCall(new Request.Builder().url(server.url("/model.zip")).build()).execute()) {
+            return response.body().source().readAll(Okio.blackhole());
+        }
+    }
+
+    @Test
+    public void unlimitedByDefault() throws IOException {
+        enqueue(4 * (int) RATE);
+        long start = System.currentTimeMillis();
+        assertEquals(4 * RATE, download());
+        // Throttled this would take three seconds
+        assertTrue(System.currentTimeMillis() - start < 2000);
+    }
+
+    @Test
+    public void limitsASingleDownload() throws IOException {
+        limiter.setBytesPerSecond(RATE);
+        // The first second worth of bytes is in the bucket already
+        enqueue((int) (2.5 * RATE));
+        long start = System.currentTimeMillis();
+        assertEquals((long) (2.5 * RATE), download());
+        assertTrue(System.currentTimeMillis() - start >= 1400);
+    }
+
+    @Test
+    public void concurrentDownloadsShareTheBudget() throws Exception {
+        limiter.setBytesPerSecond(RATE);
+        enqueue((int) (1.25 * RATE));
+        enqueue((int) (1.25 * RATE));
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            long start = System.currentTimeMillis();
+            Future<Long> first = executor.submit(this::download);
+            Future<Long> second = executor.submit(this::download);
+            assertEquals(first.get() + second.get(), (long) (2.5 * RATE));
+            assertTrue(System.currentTimeMillis() - start >= 1400);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void liftingTheLimitTakesEffect() throws IOException {
+        limiter.setBytesPerSecond(RATE);
+        limiter.setBytesPerSecond(BandwidthLimiter.UNLIMITED);
+        enqueue(4 * (int) RATE);
+        long start = System.currentTimeMillis();
+        assertEquals(4 * RATE, download());
+        // Throttled this would take three seconds
+        assertTrue(System.currentTimeMillis() - start < 2000);
+    }
+}
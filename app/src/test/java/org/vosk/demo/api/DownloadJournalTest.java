@@ -0,0 +1,162 @@
+package org.vosk.demo.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+
+import okhttp3.Headers;
+import okhttp3.OkHttpClient;
+
+public class DownloadJournalTest {
+
+    private static final String ETAG = "\"5f2a-1\"";
+    private static final String LAST_MODIFIED = "Tue, 01 Jun 2021 10:00:00 GMT";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File target;
+
+    @Before
+    public void setUp() throws IOException {
+        target = folder.newFile("model.zip");
+        try (RandomAccessFile file = new RandomAccessFile(target, "rw")) {
+            file.setLength(100);
+        }
+    }
+
+    private static MirrorSelector.Origin origin(String url) {
+        return new MirrorSelector(url, Collections.singletonList(url), new OkHttpClient()).getCurrentMirror();
+    }
+
+    @Test
+    public void resumesWithRangeAndStrongEtag() throws IOException {
+        DownloadJournal journal = DownloadJournal.load(target);
+        journal.start(null, Headers.of("ETag", ETAG, "Last-Modified", LAST_MODIFIED), 1000);
+
+        long offset = journal.getResumeOffset(target, null);
+        assertEquals(100, offset);
+        assertEquals("bytes=100-", journal.getRangeHeader(offset));
+        assertEquals(ETAG, journal.getIfRangeHeader(offset, null));
+    }
+
+    @Test
+    public void noRangeHeadersWithoutOffset() {
+        DownloadJournal journal = DownloadJournal.load(target);
+        assertNull(journal.getRangeHeader(0));
+        assertNull(journal.getIfRangeHeader(0, null));
+    }
+
+    @Test
+    public void weakEtagFallsBackToLastModified() throws IOException {
+        DownloadJournal journal = DownloadJournal.load(target);
+        journal.start(null, Headers.of("ETag", "W/" + ETAG, "Last-Modified", LAST_MODIFIED), 1000);
+
+        assertEquals(LAST_MODIFIED, journal.getIfRangeHeader(100, null));
+    }
+
+    @Test
+    public void withoutValidatorTheFileIsNotResumed() throws IOException {
+        DownloadJournal journal = DownloadJournal.load(target);
+        journal.start(null, Headers.of("Content-Type", "application/zip"), 1000);
+
+        assertEquals(0, journal.getResumeOffset(target, null));
+    }
+
+    @Test
+    public void anotherMirrorOnlyGetsTheModificationDate() throws IOException {
+        MirrorSelector.Origin first = origin("https://first.example/models/");
+        MirrorSelector.Origin second = origin("https://second.example/models/");
+        DownloadJournal journal = DownloadJournal.load(target);
+        journal.start(first, Headers.of("ETag", ETAG, "Last-Modified", LAST_MODIFIED), 1000);
+
+        assertEquals(ETAG, journal.getIfRangeHeader(100, first));
+        assertEquals(LAST_MODIFIED, journal.getIfRangeHeader(100, second));
+
+        journal.start(first, Headers.of("ETag", ETAG), 1000);
+        assertEquals(100, journal.getResumeOffset(target, first));
+        assertEquals(0, journal.getResumeOffset(target, second));
+    }
+
+    @Test
+    public void segmentedOrCompleteDownloadsAreNotResumedAsAStream() throws IOException {
+        DownloadJournal journal = DownloadJournal.load(target);
+        journal.startSegmented(null, Headers.of("ETag", ETAG), 1000,
+                Arrays.asList(new DownloadJournal.Segment(0, 499), new DownloadJournal.Segment(500, 999)));
+        assertEquals(0, journal.getResumeOffset(target, null));
+
+        journal.start(null, Headers.of("ETag", ETAG), 100);
+        journal.markComplete();
+        assertEquals(0, journal.getResumeOffset(target, null));
+        assertTrue(journal.isComplete(target));
+    }
+
+    @Test
+    public void completeOnlyWithTheExpectedLength() throws IOException {
+        DownloadJournal journal = DownloadJournal.load(target);
+        journal.start(null, Headers.of("ETag", ETAG), 1000);
+        journal.markComplete();
+
+        assertFalse(journal.isComplete(target));
+    }
+
+    @Test
+    public void survivesReload() throws IOException {
+        MirrorSelector.Origin origin = origin("https://first.example/models/");
+        DownloadJournal journal = DownloadJournal.load(target);
+        journal.startSegmented(origin, Headers.of("ETag", ETAG, "Last-Modified", LAST_MODIFIED), 1000,
+                Arrays.asList(new DownloadJournal.Segment(0, 499), new DownloadJournal.Segment(500, 999)));
+        journal.getSegments().get(0).setPosition(200);
+        journal.getSegments().get(1).setPosition(1000);
+        journal.saveProgress();
+
+        DownloadJournal reloaded = DownloadJournal.load(target);
+        assertTrue(reloaded.hasSegments());
+        assertEquals(1000, reloaded.getContentLength());
+        assertEquals(200 + 500, reloaded.getSegmentedBytes());
+        assertFalse(reloaded.getSegments().get(0).isComplete());
+        assertTrue(reloaded.getSegments().get(1).isComplete());
+        assertEquals(ETAG, reloaded.getValidator(origin));
+    }
+
+    @Test
+    public void deleteForgetsEverything() throws IOException {
+        DownloadJournal journal = DownloadJournal.load(target);
+        journal.start(null, Headers.of("ETag", ETAG), 1000);
+        journal.delete();
+
+        assertFalse(new File(folder.getRoot(), "model.zip.journal").exists());
+        assertEquals(0, journal.getResumeOffset(target, null));
+        assertEquals(0, DownloadJournal.load(target).getResumeOffset(target, null));
+    }
+
+    @Test
+    public void completeLengthFromContentRange() {
+        assertEquals(12345, DownloadJournal.getCompleteLength(Headers.of("Content-Range", "bytes 0-0/12345")));
+        assertEquals(-1, DownloadJournal.getCompleteLength(Headers.of("Content-Range", "bytes 0-0/*")));
+        assertEquals(-1, DownloadJournal.getCompleteLength(Headers.of("Content-Range", "bytes 0-0/")));
+        assertEquals(-1, DownloadJournal.getCompleteLength(Headers.of()));
+    }
+
+    @Test
+    public void partialResponseOfAnotherArchiveDoesNotMatch() throws IOException {
+        DownloadJournal journal = DownloadJournal.load(target);
+        journal.start(null, Headers.of("ETag", ETAG), 1000);
+
+        assertTrue(journal.matchesLength(Headers.of("Content-Range", "bytes 100-999/1000")));
+        assertTrue(journal.matchesLength(Headers.of("Content-Range", "bytes 100-999/*")));
+        assertFalse(journal.matchesLength(Headers.of("Content-Range", "bytes 100-1199/1200")));
+    }
+}
@@ -0,0 +1,87 @@
+package org.vosk.demo.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.vosk.demo.utils.EventBus;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.disposables.Disposable;
+
+/**
+ * Allocations per MB of progress reporting for a simulated 1 GiB download read in 8 KiB chunks,
+ * the reporter against the listener it replaced. Results are printed, only the event counts are
+ * asserted. Allocations are counted on the current thread, which HotSpot supports.
+ */
+public class DownloadProgressReporterBenchmark {
+
+    private static final long CONTENT_LENGTH = 1024L * 1024 * 1024;
+    private static final int READ_SIZE = 8 * 1024;
+    private static final long MB = 1024 * 1024;
+
+    private final AtomicInteger events = new AtomicInteger();
+    private Disposable subscription;
+
+    @Before
+    public void setUp() {
+        subscription = EventBus.getInstance().getDownloadStatusObservable().subscribe(download -> events.incrementAndGet());
+    }
+
+    @After
+    public void tearDown() {
+        subscription.dispose();
+    }
+
+    /**
+     * The listener of DownloadModelService before the reporter, kept here as the baseline.
+     */
+    private static final DownloadProgressListener PER_READ_LISTENER = (bytesRead, contentLength, done) -> {
+        Download download = new Download();
+        download.setTotalFileSize(contentLength);
+        download.setCurrentFileSize(bytesRead);
+        int progress = (int) ((bytesRead * 100) / contentLength);
+        download.setProgress(progress);
+        Log.d("DOWNLOAD", "Progress: " + progress);
+        EventBus.getInstance().postDownloadStatus(download);
+    };
+
+    private static long simulateDownload(DownloadProgressListener listener) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        for (long read = READ_SIZE; read <= CONTENT_LENGTH; read += READ_SIZE) {
+            listener.update(read, CONTENT_LENGTH, read == CONTENT_LENGTH);
+        }
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+    }
+
+    @Test
+    public void allocationsPerMb() {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+
+        // Warm up both paths so class loading is not counted
+        simulateDownload(PER_READ_LISTENER);
+        simulateDownload(new DownloadProgressReporter("vosk-model-en-us-0.22"));
+
+        events.set(0);
+        long perReadBytes = simulateDownload(PER_READ_LISTENER);
+        int perReadEvents = events.getAndSet(0);
+        long reporterBytes = simulateDownload(new DownloadProgressReporter("vosk-model-en-us-0.22"));
+        int reporterEvents = events.get();
+
+        long megabytes = CONTENT_LENGTH / MB;
+        System.out.printf("per read listener: %d events, %d bytes allocated per MB%n", perReadEvents, perReadBytes / megabytes);
+        System.out.printf("progress reporter: %d events, %d bytes allocated per MB%n", reporterEvents, reporterBytes / megabytes);
+
+        assertEquals(CONTENT_LENGTH / READ_SIZE, perReadEvents);
+        // One per visible percentage at most
+        assertTrue(reporterEvents <= 101);
+    }
+}
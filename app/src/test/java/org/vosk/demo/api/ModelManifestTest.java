@@ -0,0 +1,152 @@
+package org.vosk.demo.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.vosk.demo.utils.Checksums;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ModelManifestTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File modelDir;
+
+    @Before
+    public void setUp() throws IOException {
+        modelDir = folder.newFolder("vosk-model-small-en-us");
+    }
+
+    private ModelManifest.Entry write(String path, String content) throws IOException {
+        File file = new File(modelDir, path);
+        file.getParentFile().mkdirs();
+        byte[] data = content.getBytes(StandardCharsets.UTF_8);
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            output.write(data);
+        }
+        return entry(path, content);
+    }
+
+    private static ModelManifest.Entry entry(String path, String content) {
+        byte[] data = content.getBytes(StandardCharsets.UTF_8);
+        MessageDigest digest = Checksums.newMd5();
+        digest.update(data);
+        return new ModelManifest.Entry(path, data.length, Checksums.toHex(digest.digest()));
+    }
+
+    private static List<String> paths(List<ModelManifest.Entry> entries) {
+        List<String> paths = new ArrayList<>();
+        for (ModelManifest.Entry entry : entries) {
+            paths.add(entry.getPath());
+        }
+        return paths;
+    }
+
+    @Test
+    public void diffAgainstInstalledManifest() throws IOException {
+        ModelManifest installed = new ModelManifest("1", Arrays.asList(
+                write("am/final.mdl", "acoustic model"),
+                write("conf/model.conf", "--sample-frequency=16000"),
+                write("graph/words.txt", "hello 1")));
+        ModelManifest release = new ModelManifest("2", Arrays.asList(
+                entry("am/final.mdl", "acoustic model"),
+                entry("conf/model.conf", "--sample-frequency=8000"),
+                entry("graph/words.txt", "hello 1\nworld 2"),
+                entry("ivector/final.ie", "ivector extractor")));
+
+        assertEquals(Arrays.asList("conf/model.conf", "graph/words.txt", "ivector/final.ie"),
+                paths(release.getChangedEntries(installed, modelDir)));
+    }
+
+    @Test
+    public void truncatedFileCountsAsChanged() throws IOException {
+        ModelManifest.Entry entry = write("am/final.mdl", "acoustic model");
+        ModelManifest installed = new ModelManifest("1", Arrays.asList(entry));
+        write("am/final.mdl", "acoustic");
+
+        assertEquals(Arrays.asList("am/final.mdl"), paths(installed.getChangedEntries(installed, modelDir)));
+    }
+
+    @Test
+    public void diffByHashingInstalledFiles() throws IOException {
+        write("am/final.mdl", "acoustic model");
+        write("conf/model.conf", "--sample-frequency=16000");
+        ModelManifest release = new ModelManifest("2", Arrays.asList(
+                entry("am/final.mdl", "acoustic model"),
+                // Same size, different content
+                entry("conf/model.conf", "--sample-frequency=08000"),
+                entry("graph/words.txt", "hello 1")));
+
+        assertEquals(Arrays.asList("conf/model.conf", "graph/words.txt"), paths(release.getChangedEntries(modelDir)));
+    }
+
+    @Test
+    public void sizeCheckOfInstalledModel() throws IOException {
+        ModelManifest manifest = new ModelManifest("1", Arrays.asList(
+                write("am/final.mdl", "acoustic model"),
+                write("conf/model.conf", "--sample-frequency=16000")));
+        assertTrue(manifest.matchesSizes(modelDir));
+
+        new File(modelDir, "conf/model.conf").delete();
+        assertFalse(manifest.matchesSizes(modelDir));
+    }
+
+    @Test
+    public void checkInstalledRejectsModelThatDoesNotMatch() throws IOException {
+        // Without a manifest the model is trusted
+        ModelManifest.checkInstalled(modelDir);
+
+        new ModelManifest("1", Arrays.asList(write("am/final.mdl", "acoustic model"))).save(modelDir);
+        ModelManifest.checkInstalled(modelDir);
+
+        write("am/final.mdl", "acoustic");
+        try {
+            ModelManifest.checkInstalled(modelDir);
+            fail();
+        } catch (ModelManifest.CorruptedModelException expected) {
+        }
+    }
+
+    @Test
+    public void saveAndLoad() throws IOException {
+        assertNull(ModelManifest.load(modelDir));
+
+        new ModelManifest("2", Arrays.asList(entry("am/final.mdl", "acoustic model"))).save(modelDir);
+        assertEquals(new File(folder.getRoot(), "vosk-model-small-en-us" + ModelManifest.SUFFIX), ModelManifest.getFile(modelDir));
+
+        ModelManifest loaded = ModelManifest.load(modelDir);
+        assertEquals("2", loaded.getVersion());
+        assertEquals(1, loaded.getFiles().size());
+        assertEquals("am/final.mdl", loaded.getFiles().get(0).getPath());
+        assertEquals(entry("am/final.mdl", "acoustic model").getMd5(), loaded.getFiles().get(0).getMd5());
+    }
+
+    @Test
+    public void resolveStaysInsideModelDirectory() throws IOException {
+        assertEquals(new File(modelDir, "am/final.mdl"), ModelManifest.resolve(modelDir, entry("am/final.mdl", "")));
+
+        for (String path : Arrays.asList("", "/etc/passwd", "../other/final.mdl", "am/../../final.mdl", "am\\..\\..\\final.mdl")) {
+            try {
+                ModelManifest.resolve(modelDir, entry(path, ""));
+                fail(path);
+            } catch (IOException expected) {
+            }
+        }
+    }
+}
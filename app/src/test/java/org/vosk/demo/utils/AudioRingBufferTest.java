@@ -0,0 +1,84 @@
+package org.vosk.demo.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class AudioRingBufferTest {
+
+    private static short[] samples(int from, int count) {
+        short[] data = new short[count];
+        for (int i = 0; i < count; i++) {
+            data[i] = (short) (from + i);
+        }
+        return data;
+    }
+
+    private static short[] read(AudioRingBuffer buffer, int count) {
+        short[] out = new short[count];
+        return Arrays.copyOf(out, buffer.read(out));
+    }
+
+    @Test
+    public void readsInWriteOrder() {
+        AudioRingBuffer buffer = new AudioRingBuffer(8);
+        buffer.write(samples(0, 3), 3);
+        buffer.write(samples(3, 2), 2);
+
+        assertEquals(5, buffer.size());
+        assertArrayEquals(samples(0, 4), read(buffer, 4));
+        assertArrayEquals(samples(4, 1), read(buffer, 4));
+        assertEquals(0, buffer.getDropped());
+    }
+
+    @Test
+    public void wrapsAround() {
+        AudioRingBuffer buffer = new AudioRingBuffer(8);
+        buffer.write(samples(0, 6), 6);
+        read(buffer, 5);
+        buffer.write(samples(6, 6), 6);
+
+        assertEquals(7, buffer.size());
+        assertArrayEquals(samples(5, 7), read(buffer, 8));
+    }
+
+    @Test
+    public void overflowDropsOldestSamples() {
+        AudioRingBuffer buffer = new AudioRingBuffer(8);
+        buffer.write(samples(0, 6), 6);
+        buffer.write(samples(6, 5), 5);
+
+        assertEquals(8, buffer.size());
+        assertEquals(3, buffer.getDropped());
+        assertArrayEquals(samples(3, 8), read(buffer, 8));
+    }
+
+    @Test
+    public void writeLargerThanCapacityKeepsTail() {
+        AudioRingBuffer buffer = new AudioRingBuffer(8);
+        buffer.write(samples(0, 2), 2);
+        buffer.write(samples(2, 12), 12);
+
+        assertEquals(6, buffer.getDropped());
+        assertArrayEquals(samples(6, 8), read(buffer, 8));
+    }
+
+    @Test
+    public void onlyGivenLengthIsWritten() {
+        AudioRingBuffer buffer = new AudioRingBuffer(8);
+        buffer.write(samples(0, 6), 2);
+
+        assertArrayEquals(samples(0, 2), read(buffer, 8));
+    }
+
+    @Test
+    public void emptyBufferReadsNothing() {
+        AudioRingBuffer buffer = new AudioRingBuffer(8);
+
+        assertEquals(0, buffer.read(new short[4]));
+        assertEquals(0, buffer.size());
+    }
+}
@@ -0,0 +1,50 @@
+package org.vosk.demo.utils;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+public class ExtractionJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void newJournalIsEmpty() throws IOException {
+        File file = new File(folder.getRoot(), "model.extract");
+        ExtractionJournal journal = ExtractionJournal.load(file);
+
+        assertFalse(journal.isComplete("am/final.mdl"));
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void completeEntriesSurviveReload() throws IOException {
+        File file = new File(folder.getRoot(), "model.extract");
+        ExtractionJournal journal = ExtractionJournal.load(file);
+        journal.markComplete("am/final.mdl");
+        journal.markComplete("conf/model.conf");
+
+        ExtractionJournal reloaded = ExtractionJournal.load(file);
+        assertTrue(reloaded.isComplete("am/final.mdl"));
+        assertTrue(reloaded.isComplete("conf/model.conf"));
+        assertFalse(reloaded.isComplete("graph/HCLr.fst"));
+    }
+
+    @Test
+    public void deleteStartsOver() throws IOException {
+        File file = new File(folder.getRoot(), "model.extract");
+        ExtractionJournal journal = ExtractionJournal.load(file);
+        journal.markComplete("am/final.mdl");
+        journal.delete();
+
+        assertFalse(file.exists());
+        assertFalse(ExtractionJournal.load(file).isComplete("am/final.mdl"));
+    }
+}
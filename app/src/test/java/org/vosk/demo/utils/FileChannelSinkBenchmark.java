@@ -0,0 +1,112 @@
+package org.vosk.demo.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.Sink;
+
+/**
+ * Throughput of writing a download to disk, {@link FileChannelSink} against the IOUtils.copy into
+ * a FileOutputStream it replaced, both reading from a local MockWebServer. The best of three
+ * rounds is printed, only the written sizes are asserted.
+ */
+public class FileChannelSinkBenchmark {
+
+    private static final int ARCHIVE_SIZE = 64 * 1024 * 1024;
+    private static final int ROUNDS = 3;
+    private static final double MB = 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockWebServer server;
+    private OkHttpClient client;
+    private Buffer archive;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        client = new OkHttpClient();
+        byte[] data = new byte[ARCHIVE_SIZE];
+        new Random(0).nextBytes(data);
+        archive = new Buffer().write(data);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    private Response download() throws IOException {
+        server.enqueue(new MockResponse().setBody(archive.clone()));
+        return client.newCall(new Request.Builder().url(server.url("/model.zip")).build()).execute();
+    }
+
+    private long streamCopy(File file) throws IOException {
+        try (Response response = download();
+             InputStream inputStream = response.body().byteStream();
+             OutputStream outputStream = new FileOutputStream(file)) {
+            IOUtils.copy(inputStream, outputStream);
+        }
+        return file.length();
+    }
+
+    private long channelSink(File file) throws IOException {
+        try (Response response = download();
+             BufferedSource source = response.body().source();
+             RandomAccessFile output = new RandomAccessFile(file, "rw");
+             FileChannel channel = output.getChannel()) {
+            try (Sink sink = new FileChannelSink(channel, 0, FileChannelSink.DEFAULT_SYNC_INTERVAL_BYTES, null)) {
+                source.readAll(sink);
+            }
+        }
+        return file.length();
+    }
+
+    private interface Copy {
+        long run(File file) throws IOException;
+    }
+
+    private double measure(Copy copy) throws IOException {
+        long bestNanos = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            File file = new File(folder.getRoot(), "model.zip");
+            file.delete();
+            long start = System.nanoTime();
+            assertEquals(ARCHIVE_SIZE, copy.run(file));
+            bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+        }
+        return ARCHIVE_SIZE / MB / (bestNanos / 1e9);
+    }
+
+    @Test
+    public void throughput() throws IOException {
+        double streamCopy = measure(this::streamCopy);
+        double channelSink = measure(this::channelSink);
+        System.out.printf("IOUtils.copy to FileOutputStream: %.1f MB/s%n", streamCopy);
+        System.out.printf("FileChannelSink: %.1f MB/s%n", channelSink);
+    }
+}
@@ -0,0 +1,109 @@
+package org.vosk.demo.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+public class UpdateJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File modelDir;
+    private File stagingDir;
+    private File journalFile;
+
+    @Before
+    public void setUp() throws IOException {
+        modelDir = folder.newFolder("model");
+        stagingDir = folder.newFolder("model.staging");
+        journalFile = new File(folder.getRoot(), "model.update");
+        write(new File(modelDir, "am/final.mdl"), "old acoustic model");
+        write(new File(modelDir, "graph/old.fst"), "obsolete graph");
+        write(new File(stagingDir, "am/final.mdl"), "new acoustic model");
+        write(new File(stagingDir, "conf/model.conf"), "--sample-frequency=16000");
+    }
+
+    private static void write(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            output.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    private UpdateJournal newJournal() {
+        UpdateJournal journal = new UpdateJournal(journalFile);
+        journal.addMove(new File(stagingDir, "am/final.mdl"), new File(modelDir, "am/final.mdl"));
+        journal.addMove(new File(stagingDir, "conf/model.conf"), new File(modelDir, "conf/model.conf"));
+        journal.addDelete(new File(modelDir, "graph/old.fst"));
+        return journal;
+    }
+
+    private void assertUpdated() throws IOException {
+        assertEquals("new acoustic model", read(new File(modelDir, "am/final.mdl")));
+        assertEquals("--sample-frequency=16000", read(new File(modelDir, "conf/model.conf")));
+        assertFalse(new File(modelDir, "graph/old.fst").exists());
+        assertFalse(journalFile.exists());
+    }
+
+    @Test
+    public void applyMovesAndDeletes() throws IOException {
+        UpdateJournal journal = newJournal();
+        journal.commit();
+        assertTrue(journalFile.exists());
+
+        journal.apply();
+        assertUpdated();
+    }
+
+    @Test
+    public void recoverFinishesInterruptedUpdate() throws IOException {
+        newJournal().commit();
+        // The process died after the first move
+        assertTrue(new File(stagingDir, "am/final.mdl").renameTo(new File(modelDir, "am/final.mdl")));
+
+        assertTrue(UpdateJournal.recover(journalFile));
+        assertUpdated();
+    }
+
+    @Test
+    public void recoverReplaysCompletedUpdate() throws IOException {
+        UpdateJournal journal = newJournal();
+        journal.commit();
+        journal.apply();
+        // Crash before the journal was removed
+        newJournal().commit();
+
+        assertTrue(UpdateJournal.recover(journalFile));
+        assertUpdated();
+    }
+
+    @Test
+    public void nothingToRecoverWithoutJournal() throws IOException {
+        assertFalse(UpdateJournal.recover(journalFile));
+        assertEquals("old acoustic model", read(new File(modelDir, "am/final.mdl")));
+    }
+
+    @Test
+    public void uncommittedJournalIsNotRecovered() throws IOException {
+        newJournal();
+
+        assertFalse(UpdateJournal.recover(journalFile));
+        assertTrue(new File(modelDir, "graph/old.fst").exists());
+    }
+}
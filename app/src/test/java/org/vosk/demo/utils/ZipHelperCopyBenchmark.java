@@ -0,0 +1,164 @@
+package org.vosk.demo.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * MB/s and allocations per MB of extracting a model archive, the pooled channel copy of
+ * {@link ZipHelper#unzipStream} at each buffer size of {@link BufferPool} against the per-entry
+ * 10 KB array and buffered streams it replaced. Both sides hash what they write, as unzipStream
+ * does. Set {@code VOSK_MODEL_ARCHIVE} to the path of a real model zip, otherwise a generated
+ * archive of the same shape is used. Results are printed, only the extracted sizes are asserted.
+ */
+public class ZipHelperCopyBenchmark {
+
+    private static final int ROUNDS = 3;
+    private static final double MB = 1024 * 1024;
+    private static final int[] BUFFER_SIZES = {16 * 1024, 64 * 1024, 256 * 1024};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private com.sun.management.ThreadMXBean threads;
+    private File archive;
+
+    @Before
+    public void setUp() throws IOException {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        String path = System.getenv("VOSK_MODEL_ARCHIVE");
+        archive = path != null ? new File(path) : createModelArchive(folder.newFile("model.zip"));
+    }
+
+    @After
+    public void tearDown() {
+        ZipHelper.setBufferSize(BufferPool.getDefaultBufferSize());
+    }
+
+    /**
+     * A few large graph and acoustic model files and small configuration files, with data that
+     * deflates about as well as a real model.
+     */
+    private static File createModelArchive(File file) throws IOException {
+        String[] names = {"am/final.mdl", "graph/HCLr.fst", "graph/Gr.fst", "graph/phones/word_boundary.int",
+                "conf/mfcc.conf", "conf/model.conf", "ivector/final.ie", "ivector/global_cmvn.stats"};
+        int[] sizes = {20 << 20, 16 << 20, 8 << 20, 4 << 10, 1 << 10, 1 << 10, 4 << 20, 2 << 10};
+        Random random = new Random(0);
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file))) {
+            for (int i = 0; i < names.length; i++) {
+                byte[] data = new byte[sizes[i]];
+                for (int j = 0; j < data.length; j++) {
+                    data[j] = (byte) (random.nextInt(64) + (j & 0x3f));
+                }
+                zip.putNextEntry(new ZipEntry("vosk-model/" + names[i]));
+                zip.write(data);
+                zip.closeEntry();
+            }
+        }
+        return file;
+    }
+
+    /**
+     * The extraction loop before the buffer pool.
+     */
+    private static long streamCopy(File archive, File outputDir) throws IOException {
+        long total = 0;
+        try (ZipInputStream zin = new ZipInputStream(new BufferedInputStream(new FileInputStream(archive)))) {
+            ZipEntry entry;
+            while ((entry = zin.getNextEntry()) != null) {
+                File outputFile = new File(outputDir, entry.getName());
+                if (entry.isDirectory()) {
+                    outputFile.mkdirs();
+                    continue;
+                }
+                outputFile.getParentFile().mkdirs();
+                MessageDigest digest = Checksums.newMd5();
+                try (BufferedOutputStream output = new BufferedOutputStream(new FileOutputStream(outputFile))) {
+                    total += copy(zin, output, digest);
+                }
+                digest.digest();
+            }
+        }
+        return total;
+    }
+
+    private static long copy(InputStream input, OutputStream output, MessageDigest digest) throws IOException {
+        byte[] data = new byte[10240];
+        int count;
+        long total = 0;
+        while ((count = input.read(data)) != -1) {
+            digest.update(data, 0, count);
+            output.write(data, 0, count);
+            total += count;
+        }
+        output.flush();
+        return total;
+    }
+
+    private static long pooledCopy(File archive, File outputDir) throws IOException {
+        long total = 0;
+        try (InputStream input = new FileInputStream(archive)) {
+            for (ZipHelper.ExtractedFile file : ZipHelper.unzipStream(input, outputDir)) {
+                total += file.getSize();
+            }
+        }
+        return total;
+    }
+
+    private interface Extraction {
+        long run(File archive, File outputDir) throws IOException;
+    }
+
+    private void measure(String name, Extraction extraction, long expectedBytes) throws IOException {
+        long bestNanos = Long.MAX_VALUE;
+        long allocated = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            File outputDir = new File(folder.getRoot(), "model");
+            ZipHelper.deleteRecursively(outputDir);
+            ZipHelper.deleteRecursively(ZipHelper.getStagingDir(outputDir));
+            long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            long start = System.nanoTime();
+            assertEquals(expectedBytes, extraction.run(archive, outputDir));
+            long nanos = System.nanoTime() - start;
+            if (nanos < bestNanos) {
+                bestNanos = nanos;
+                allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+            }
+        }
+        double megabytes = expectedBytes / MB;
+        System.out.printf("%s: %.1f MB/s, %d bytes allocated per MB%n", name,
+                megabytes / (bestNanos / 1e9), (long) (allocated / megabytes));
+    }
+
+    @Test
+    public void throughputAndAllocations() throws IOException {
+        long expectedBytes = streamCopy(archive, folder.newFolder("warmup"));
+        measure("10 KB array with buffered streams", ZipHelperCopyBenchmark::streamCopy, expectedBytes);
+        for (int bufferSize : BUFFER_SIZES) {
+            ZipHelper.setBufferSize(bufferSize);
+            measure("pooled " + bufferSize / 1024 + " KB buffer to channel", ZipHelperCopyBenchmark::pooledCopy, expectedBytes);
+        }
+    }
+}